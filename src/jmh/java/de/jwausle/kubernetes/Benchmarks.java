@@ -0,0 +1,50 @@
+package de.jwausle.kubernetes;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * Main of {@code target/benchmarks.jar}, which takes the JMH command line and always adds the {@link GCProfiler}, so
+ * every result comes with the allocated bytes per operation. The cgroup benchmarks read {@code -DcgroupRoot=PATH},
+ * default {@code /sys/fs/cgroup}, like the http server.
+ */
+public class Benchmarks {
+    private static final String GC_PROFILER = "gc";
+    private static final String DEFAULT_CGROUP_ROOT = "/sys/fs/cgroup";
+    private static final Duration CGROUP_INTERVAL = Duration.ofSeconds(1);
+
+    /**
+     * @param args JMH command line, like {@code -l} or {@code Formatter -f 1 -wi 1 -i 3}
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp()) {
+            options.showHelp();
+            return;
+        }
+        Runner runner = new Runner(options.getProfilers().stream().anyMatch(profiler -> isGcProfiler(profiler.getKlass())) ?
+                options :
+                new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build());
+        if (options.shouldList()) {
+            runner.list();
+        } else {
+            runner.run();
+        }
+    }
+
+    /**
+     * @return telemetry of the cgroup at {@code -DcgroupRoot=PATH}
+     */
+    static CgroupTelemetry cgroupTelemetry() {
+        return new CgroupTelemetry(Paths.get(System.getProperty("cgroupRoot", DEFAULT_CGROUP_ROOT)), CGROUP_INTERVAL);
+    }
+
+    private static boolean isGcProfiler(String profiler) {
+        return GC_PROFILER.equals(profiler) || GCProfiler.class.getName().equals(profiler);
+    }
+}
@@ -0,0 +1,46 @@
+package de.jwausle.kubernetes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per request cost of the response body {@code [STATUS] [HOST_ADDRESS HOST_NAME] [MESSAGE]} of
+ * {@link HttpServer.Formatter}, run with {@code -prof gc} for the allocated bytes per request:
+ * <li>formatResponse - string body of the endpoints</li>
+ * <li>encodeResponse - encoded body of {@code GET /} and the changing probe answers</li>
+ * <li>cachedResponse - constant probe answers like {@code LIVING}</li>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatterBenchmark {
+    private static final int STATUS_OK = 200;
+    private static final String MESSAGE = "switched to READY";
+
+    @Benchmark
+    public String formatResponse() {
+        return HttpServer.Formatter.formatResponse(MESSAGE, STATUS_OK);
+    }
+
+    @Benchmark
+    public byte[] encodeResponse() {
+        return HttpServer.Formatter.encodeResponse(MESSAGE, STATUS_OK);
+    }
+
+    @Benchmark
+    public byte[] cachedResponse() {
+        return HttpServer.Formatter.cachedResponse(MESSAGE, STATUS_OK);
+    }
+}
@@ -0,0 +1,87 @@
+package de.jwausle.kubernetes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Convergence time of the {@link HeapConsumer} from {@code BASELINE_PERCENTAGE} to {@code target} percent of a fixed
+ * {@code -Xmx}. Each invocation starts converged at the baseline and returns once a GC measured the target. The
+ * {@link AllocationChurner} allocates {@code CHURN_MB_PER_SECOND} of short living garbage like a serving pod, so GCs
+ * happen and confirm the target as they would under load. The released chunks of the last target are old and only a
+ * full GC frees them, so the untimed way back to the baseline forces one per control step. The fork pins the serial
+ * collector, G1 frees an overshoot in the old regions only after a concurrent cycle and would score its heuristics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms512m", "-Xmx512m", "-XX:+UseSerialGC"})
+public class HeapConsumerBenchmark {
+    private static final int BASELINE_PERCENTAGE = 5;
+    private static final long CONVERGENCE_TIMEOUT_IN_MILLIS = 30_000;
+    private static final long POLL_IN_MILLIS = 1;
+    private static final long FULL_GC_PAUSE_IN_MILLIS = 50;
+    private static final double CHURN_MB_PER_SECOND = 100;
+
+    @Param({"30", "60"})
+    private int target;
+
+    private CgroupTelemetry cgroup;
+    private HeapConsumer memory;
+    private AllocationChurner churner;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cgroup = Benchmarks.cgroupTelemetry();
+        memory = new HeapConsumer(cgroup, new GcTelemetry());
+        churner = new AllocationChurner();
+        churner.start(CHURN_MB_PER_SECOND, AllocationChurner.Lifetime.SHORT, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        churner.stop();
+        cgroup.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void toBaseline() throws InterruptedException {
+        converge(BASELINE_PERCENTAGE, true);
+    }
+
+    @Benchmark
+    public long convergence() throws InterruptedException {
+        return converge(target, false);
+    }
+
+    private long converge(int percentage, boolean fullGc) throws InterruptedException {
+        memory.consume(percentage);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONVERGENCE_TIMEOUT_IN_MILLIS);
+        while (memory.timeToTargetMillis() < 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException(percentage + "% not reached in '" + CONVERGENCE_TIMEOUT_IN_MILLIS + "' millis - " + memory);
+            }
+            if (fullGc) {
+                System.gc();
+                Thread.sleep(FULL_GC_PAUSE_IN_MILLIS);
+            } else {
+                Thread.sleep(POLL_IN_MILLIS);
+            }
+        }
+        return memory.timeToTargetMillis();
+    }
+}
@@ -0,0 +1,96 @@
+package de.jwausle.kubernetes;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.exporter.common.TextFormat;
+import io.prometheus.client.hotspot.StandardExports;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposition of {@code GET /metrics} from {@link DropwizardExports} with {@code TIMERS} timers and {@code GAUGES}
+ * gauges, like the registry of the {@link HttpServer}:
+ * <li>exposition     - collect and render the text format on every scrape</li>
+ * <li>snapshotText   - {@link MetricsSnapshot} with ttl 0, rendered into its reused buffer on every scrape</li>
+ * <li>snapshotCached - {@link MetricsSnapshot} with ttl 1000 millis, scrapes share one rendered snapshot</li>
+ * <li>snapshotGzip   - gzip encoding of a cached snapshot</li>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private static final int TIMERS = 8;
+    private static final int GAUGES = 40;
+    private static final int TIMER_UPDATES = 1000;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+    private final Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+    private CollectorRegistry registry;
+    private MetricsSnapshot uncached;
+    private MetricsSnapshot cached;
+
+    @Setup
+    public void setUp() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        for (int i = 0; i < TIMERS; i++) {
+            Timer timer = metricRegistry.timer("benchmark_" + i + "_timer");
+            for (int update = 0; update < TIMER_UPDATES; update++) {
+                timer.update(ThreadLocalRandom.current().nextLong(1000), TimeUnit.MILLISECONDS);
+            }
+        }
+        for (int i = 0; i < GAUGES; i++) {
+            long value = i;
+            metricRegistry.gauge("benchmark_" + i + "_gaugh", () -> (Gauge<Long>) () -> value);
+        }
+        registry = new CollectorRegistry();
+        registry.register(new DropwizardExports(metricRegistry));
+        new StandardExports().register(registry);
+        uncached = new MetricsSnapshot(registry, 0);
+        cached = new MetricsSnapshot(registry, 1000);
+    }
+
+    @Benchmark
+    public int exposition() throws IOException {
+        buffer.reset();
+        TextFormat.write004(writer, registry.metricFamilySamples());
+        writer.flush();
+        return buffer.size();
+    }
+
+    @Benchmark
+    public byte[] snapshotText() throws IOException {
+        return uncached.text();
+    }
+
+    @Benchmark
+    public byte[] snapshotCached() throws IOException {
+        return cached.text();
+    }
+
+    @Benchmark
+    public byte[] snapshotGzip() throws IOException {
+        return cached.gzip();
+    }
+}
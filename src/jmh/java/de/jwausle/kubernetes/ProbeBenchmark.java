@@ -0,0 +1,107 @@
+package de.jwausle.kubernetes;
+
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import spark.RequestResponseFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Liveness and readiness probes under contention of {@code THREADS} concurrent kubelets:
+ * <li>liveness|readiness             - {@link HttpServer.LivenessProbe#probe()} answers of the {@link ProbeListener}</li>
+ * <li>livenessHandle|readinessHandle - spark route {@code handle} with a spark request and response per probe like the
+ * spark servlet creates them, on top of servlet stubs of one thread without a connection</li>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(ProbeBenchmark.THREADS)
+@Fork(1)
+public class ProbeBenchmark {
+    static final int THREADS = 4;
+    private static final int STATUS_OK = 200;
+
+    private ScheduledExecutorService scheduler;
+    private HttpServer.LivenessProbe liveness;
+    private HttpServer.ReadinessProbe readiness;
+
+    @Setup
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        liveness = new HttpServer.LivenessProbe(metricRegistry, scheduler);
+        readiness = new HttpServer.ReadinessProbe(metricRegistry, scheduler);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Servlet request and response of one kubelet, only the status of the response is kept.
+     */
+    @State(Scope.Thread)
+    public static class Exchange {
+        private final HttpServletRequest request = new HttpServletRequestWrapper(stub(HttpServletRequest.class));
+        private final HttpServletResponse response = new HttpServletResponseWrapper(stub(HttpServletResponse.class)) {
+            private int status = STATUS_OK;
+
+            @Override
+            public void setStatus(int status) {
+                this.status = status;
+            }
+
+            @Override
+            public int getStatus() {
+                return status;
+            }
+        };
+
+        private static <T> T stub(Class<T> type) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+                throw new UnsupportedOperationException(method.getName() + " is not stubbed.");
+            }));
+        }
+    }
+
+    @Benchmark
+    public ProbeListener.Answer liveness() {
+        return liveness.probe();
+    }
+
+    @Benchmark
+    public ProbeListener.Answer readiness() {
+        return readiness.probe();
+    }
+
+    @Benchmark
+    public Object livenessHandle(Exchange exchange) throws Exception {
+        return liveness.handle(RequestResponseFactory.create(exchange.request), RequestResponseFactory.create(exchange.response));
+    }
+
+    @Benchmark
+    public Object readinessHandle(Exchange exchange) throws Exception {
+        return readiness.handle(RequestResponseFactory.create(exchange.request), RequestResponseFactory.create(exchange.response));
+    }
+}
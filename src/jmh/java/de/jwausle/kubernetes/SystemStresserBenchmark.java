@@ -0,0 +1,46 @@
+package de.jwausle.kubernetes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Status query of {@code GET /stress} from {@link SystemStresser#toString()} with the stress processes, the in-process
+ * stressers and the cgroup cpu numbers of {@code -DcgroupRoot=PATH}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SystemStresserBenchmark {
+    private CgroupTelemetry cgroup;
+    private SystemStresser stresser;
+
+    @Setup
+    public void setUp() {
+        cgroup = Benchmarks.cgroupTelemetry();
+        stresser = new SystemStresser(cgroup);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cgroup.close();
+    }
+
+    @Benchmark
+    public String status() {
+        return stresser.toString();
+    }
+}
@@ -0,0 +1,148 @@
+package de.jwausle.kubernetes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Allocate garbage at a target rate to put pressure on the garbage collector. <br/>
+ * Each worker thread allocates {@code OBJECT_SIZE} objects paced to {@code rate / threads} and keeps them in a ring
+ * buffer for the lifetime of the profile, so they die young, survive a few young collections or get promoted.
+ * <li>SHORT  - drop each object immediately</li>
+ * <li>MEDIUM - keep each object for about 2 seconds</li>
+ * <li>LONG   - keep each object for about 60 seconds</li>
+ * The ring buffers of all workers together are limited to {@code MAX_RETAINED_RATIO} of the maximal heap.
+ */
+public class AllocationChurner {
+    private static final int OBJECT_SIZE = 4096;
+    private static final double MAX_RETAINED_RATIO = 0.25;
+    private static final long MEASURE_PERIOD_IN_MILLIS = 1000;
+    private static final double MB = 1024 * 1024;
+
+    public enum Lifetime {
+        SHORT(0), MEDIUM(2), LONG(60);
+
+        private final long seconds;
+
+        Lifetime(long seconds) {
+            this.seconds = seconds;
+        }
+
+        public static Lifetime of(String lifetime) {
+            return Lifetime.valueOf(lifetime.trim().toUpperCase());
+        }
+    }
+
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final ScheduledExecutorService meter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "allocation-churn-meter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Thread> workers = new ArrayList<>();
+    private ScheduledFuture<?> measure;
+    private volatile double targetMbPerSecond = 0;
+    private volatile double achievedMbPerSecond = 0;
+    private volatile Lifetime lifetime = Lifetime.SHORT;
+    private long lastAllocatedBytes;
+    private long lastMeasureNanos;
+
+    /**
+     * Start or restart the churn.
+     *
+     * @param mbPerSecond allocation rate in MB/s, 0 stops the churn
+     * @param lifetime    lifetime profile of the allocated objects
+     * @param threads     worker threads to spread the allocation rate
+     */
+    public synchronized void start(double mbPerSecond, Lifetime lifetime, int threads) {
+        if (mbPerSecond < 0) {
+            throw new IllegalArgumentException(mbPerSecond + " must be greather or equal than 0. Its a MB/s value.");
+        } else if (threads < 1) {
+            throw new IllegalArgumentException(threads + " must be greather than 0. Its a thread count.");
+        }
+        stop();
+        if (mbPerSecond == 0) {
+            return;
+        }
+        this.targetMbPerSecond = mbPerSecond;
+        this.lifetime = lifetime;
+        double bytesPerSecondAndThread = mbPerSecond * MB / threads;
+        long retainedBytesPerThread = (long) Math.min(bytesPerSecondAndThread * lifetime.seconds,
+                Runtime.getRuntime().maxMemory() * MAX_RETAINED_RATIO / threads);
+        int ringSize = (int) (retainedBytesPerThread / OBJECT_SIZE);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> churn(bytesPerSecondAndThread, ringSize), "allocation-churn-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        lastAllocatedBytes = allocatedBytes.sum();
+        lastMeasureNanos = System.nanoTime();
+        measure = meter.scheduleAtFixedRate(this::measure, MEASURE_PERIOD_IN_MILLIS, MEASURE_PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+        System.out.println(">> start allocation churn with " + this);
+    }
+
+    public synchronized void stop() {
+        if (measure != null) {
+            measure.cancel(false);
+            measure = null;
+        }
+        workers.forEach(Thread::interrupt);
+        workers.clear();
+        targetMbPerSecond = 0;
+        achievedMbPerSecond = 0;
+    }
+
+    public boolean isRunning() {
+        return targetMbPerSecond > 0;
+    }
+
+    public double achievedMbPerSecond() {
+        return achievedMbPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return isRunning() ?
+                String.format("'%.1f' of requested '%.1f' MB/s with '%s' lifetime in '%s' threads", achievedMbPerSecond, targetMbPerSecond, lifetime, workers.size()) :
+                "no allocation churn";
+    }
+
+    private synchronized void measure() {
+        long allocated = allocatedBytes.sum();
+        long nanos = System.nanoTime();
+        achievedMbPerSecond = (allocated - lastAllocatedBytes) / MB / ((nanos - lastMeasureNanos) / 1e9);
+        lastAllocatedBytes = allocated;
+        lastMeasureNanos = nanos;
+    }
+
+    private void churn(double bytesPerSecond, int ringSize) {
+        byte[][] ring = new byte[Math.max(1, ringSize)][];
+        int index = 0;
+        long allocated = 0;
+        long start = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            long allowed = (long) ((System.nanoTime() - start) / 1e9 * bytesPerSecond);
+            if (allocated >= allowed) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                continue;
+            }
+            byte[] object = new byte[OBJECT_SIZE];
+            object[index % OBJECT_SIZE] = (byte) index;
+            if (ringSize > 0) {
+                ring[index] = object;
+                index = (index + 1) % ringSize;
+            }
+            allocated += OBJECT_SIZE;
+            allocatedBytes.add(OBJECT_SIZE);
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package de.jwausle.kubernetes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Background sampler of the cgroup resource telemetry of this container, to see cpu throttling and memory limits from
+ * inside the pod. <br/>
+ * cgroup v2 is detected by {@code cgroup.controllers} below the root, else the v1 controller directories are read. The
+ * files are opened once and read every {@code interval} from position 0 into one reused buffer and parsed without
+ * allocation on the sampler thread:
+ * <li>cpu.stat                 - throttled periods and time, v1 {@code cpu/cpu.stat}</li>
+ * <li>cpu.max                  - cpu quota in cores or -1 if unlimited, v1 {@code cpu/cpu.cfs_quota_us} and
+ * {@code cpu/cpu.cfs_period_us}</li>
+ * <li>memory.current           - memory usage, v1 {@code memory/memory.usage_in_bytes}</li>
+ * <li>memory.max               - memory limit or -1 if unlimited, v1 {@code memory/memory.limit_in_bytes}</li>
+ * <li>cpu|memory|io.pressure   - PSI {@code some} and {@code full} avg10 in percent, v1 the host wide {@code /proc/pressure}</li>
+ * Files missing at the start leave their value at -1. {@link #close()} stops the sampler and closes the files.
+ */
+public class CgroupTelemetry implements AutoCloseable {
+    private static final int BUFFER_SIZE = 8192;
+    private static final long V1_UNLIMITED = Long.MAX_VALUE / 2;
+    private static final Path PROC_PRESSURE = Paths.get("/proc/pressure");
+    private static final byte[] NR_PERIODS = bytes("nr_periods");
+    private static final byte[] NR_THROTTLED = bytes("nr_throttled");
+    private static final byte[] THROTTLED_USEC = bytes("throttled_usec");
+    private static final byte[] THROTTLED_TIME = bytes("throttled_time");
+    private static final byte[] SOME = bytes("some");
+    private static final byte[] FULL = bytes("full");
+    private static final byte[] AVG10 = bytes("avg10=");
+    private static final byte[] MAX = bytes("max");
+    private static final long CLOSE_TIMEOUT_IN_MILLIS = 1000;
+
+    private final Path root;
+    private final boolean v2;
+    private final Duration interval;
+    private final FileChannel cpuStat;
+    private final FileChannel cpuMax;
+    private final FileChannel cpuPeriod;
+    private final FileChannel memoryCurrent;
+    private final FileChannel memoryMax;
+    private final FileChannel[] pressure;
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cgroup-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // only touched by the sampler thread
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] content = buffer.array();
+    private long lastPeriods = -1;
+    private long lastThrottled = -1;
+    private volatile long periods = -1;
+    private volatile long throttledPeriods = -1;
+    private volatile long throttledMicros = -1;
+    private volatile double throttledRatio = 0;
+    private volatile double cpuQuotaCores = -1;
+    private volatile long memoryCurrentBytes = -1;
+    private volatile long memoryMaxBytes = -1;
+    // bits of some and full avg10 of cpu, memory and io
+    private final AtomicLongArray pressureAvg10 = new AtomicLongArray(Resource.values().length * 2);
+
+    public enum Resource {
+        CPU, MEMORY, IO;
+
+        private String file() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * @param root     cgroup mount point, like {@code /sys/fs/cgroup}
+     * @param interval sample interval
+     */
+    public CgroupTelemetry(Path root, Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException(interval + " must be greather than 0. Its a sample interval.");
+        }
+        this.root = root;
+        this.interval = interval;
+        this.v2 = Files.exists(root.resolve("cgroup.controllers"));
+        this.cpuStat = open(v2 ? root.resolve("cpu.stat") : root.resolve("cpu").resolve("cpu.stat"));
+        this.cpuMax = open(v2 ? root.resolve("cpu.max") : root.resolve("cpu").resolve("cpu.cfs_quota_us"));
+        this.cpuPeriod = v2 ? null : open(root.resolve("cpu").resolve("cpu.cfs_period_us"));
+        this.memoryCurrent = open(v2 ? root.resolve("memory.current") : root.resolve("memory").resolve("memory.usage_in_bytes"));
+        this.memoryMax = open(v2 ? root.resolve("memory.max") : root.resolve("memory").resolve("memory.limit_in_bytes"));
+        this.pressure = new FileChannel[Resource.values().length];
+        for (int i = 0; i < pressureAvg10.length(); i++) {
+            pressureAvg10.set(i, Double.doubleToRawLongBits(-1));
+        }
+        for (Resource resource : Resource.values()) {
+            Path cgroupPressure = root.resolve(resource.file() + ".pressure");
+            pressure[resource.ordinal()] = open(v2 || Files.exists(cgroupPressure) ? cgroupPressure : PROC_PRESSURE.resolve(resource.file()));
+        }
+        sample();
+        sampler.scheduleAtFixedRate(this::sample, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return enforcement periods or -1 if unknown
+     */
+    public long periods() {
+        return periods;
+    }
+
+    /**
+     * @return throttled enforcement periods or -1 if unknown
+     */
+    public long throttledPeriods() {
+        return throttledPeriods;
+    }
+
+    /**
+     * @return total throttled time in seconds or -1 if unknown
+     */
+    public double throttledSeconds() {
+        return throttledMicros < 0 ? -1 : throttledMicros / 1e6;
+    }
+
+    /**
+     * @return throttled share of the enforcement periods during the last interval
+     */
+    public double throttledRatio() {
+        return throttledRatio;
+    }
+
+    /**
+     * @return cpu quota in cores or -1 if unlimited or unknown
+     */
+    public double cpuQuotaCores() {
+        return cpuQuotaCores;
+    }
+
+    public long memoryCurrentBytes() {
+        return memoryCurrentBytes;
+    }
+
+    /**
+     * @return memory limit or -1 if unlimited or unknown
+     */
+    public long memoryMaxBytes() {
+        return memoryMaxBytes;
+    }
+
+    /**
+     * @return share of the memory limit in use or -1 if there is no limit
+     */
+    public double memoryUsageRatio() {
+        long max = memoryMaxBytes;
+        return max > 0 && memoryCurrentBytes >= 0 ? (double) memoryCurrentBytes / max : -1;
+    }
+
+    /**
+     * @return percentage of the last 10 seconds some tasks stalled on the resource or -1 if unknown
+     */
+    public double pressureSome(Resource resource) {
+        return Double.longBitsToDouble(pressureAvg10.get(resource.ordinal() * 2));
+    }
+
+    /**
+     * @return percentage of the last 10 seconds all tasks stalled on the resource or -1 if unknown
+     */
+    public double pressureFull(Resource resource) {
+        return Double.longBitsToDouble(pressureAvg10.get(resource.ordinal() * 2 + 1));
+    }
+
+    /**
+     * @return cpu throttling and pressure
+     */
+    public String cpuStatus() {
+        return String.format("cgroup cpu throttled '%s' of '%s' periods ('%.1f'%% last interval, '%.2f' seconds total) with pressure some '%.2f'%% full '%.2f'%%",
+                throttledPeriods, periods, throttledRatio * 100, throttledSeconds(), pressureSome(Resource.CPU), pressureFull(Resource.CPU));
+    }
+
+    /**
+     * @return memory usage, limit and pressure
+     */
+    public String memoryStatus() {
+        return String.format("cgroup memory '%s' of '%s' bytes ('%.1f'%%) with pressure some '%.2f'%% full '%.2f'%%",
+                memoryCurrentBytes, memoryMaxBytes < 0 ? "unlimited" : Long.toString(memoryMaxBytes), Math.max(0, memoryUsageRatio()) * 100,
+                pressureSome(Resource.MEMORY), pressureFull(Resource.MEMORY));
+    }
+
+    /**
+     * Stop sampling, wait for a running sample and close the files. The values keep their last sample.
+     */
+    @Override
+    public void close() {
+        sampler.shutdown();
+        try {
+            sampler.awaitTermination(CLOSE_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close(cpuStat);
+        close(cpuMax);
+        close(cpuPeriod);
+        close(memoryCurrent);
+        close(memoryMax);
+        for (FileChannel channel : pressure) {
+            close(channel);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cgroup %s at %s sampled every '%s' millis", v2 ? "v2" : "v1", root, interval.toMillis());
+    }
+
+    void sample() {
+        try {
+            sampleCpu();
+            sampleCpuQuota();
+            if (read(memoryCurrent) > 0) {
+                memoryCurrentBytes = parseLong(0, buffer.limit());
+            }
+            if (read(memoryMax) > 0) {
+                long max = startsWith(0, MAX) ? -1 : parseLong(0, buffer.limit());
+                memoryMaxBytes = max >= V1_UNLIMITED ? -1 : max;
+            }
+            for (Resource resource : Resource.values()) {
+                if (read(pressure[resource.ordinal()]) > 0) {
+                    pressureAvg10.set(resource.ordinal() * 2, Double.doubleToRawLongBits(pressureAvg10(SOME)));
+                    pressureAvg10.set(resource.ordinal() * 2 + 1, Double.doubleToRawLongBits(pressureAvg10(FULL)));
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.printf("Sampling cgroup telemetry fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    private void sampleCpu() {
+        if (read(cpuStat) <= 0) {
+            return;
+        }
+        long nrPeriods = keyed(NR_PERIODS);
+        long nrThrottled = keyed(NR_THROTTLED);
+        long micros = v2 ? keyed(THROTTLED_USEC) : keyed(THROTTLED_TIME);
+        throttledMicros = v2 || micros < 0 ? micros : TimeUnit.NANOSECONDS.toMicros(micros);
+        if (lastPeriods >= 0 && nrPeriods > lastPeriods) {
+            throttledRatio = (double) (nrThrottled - lastThrottled) / (nrPeriods - lastPeriods);
+        } else if (nrPeriods == lastPeriods) {
+            throttledRatio = 0;
+        }
+        lastPeriods = nrPeriods;
+        lastThrottled = nrThrottled;
+        periods = nrPeriods;
+        throttledPeriods = nrThrottled;
+    }
+
+    /**
+     * v2 {@code cpu.max} is {@code QUOTA PERIOD} or {@code max PERIOD}, v1 has quota and period in separate files and a
+     * quota of -1 if unlimited.
+     */
+    private void sampleCpuQuota() {
+        long quota;
+        long period;
+        if (v2) {
+            if (read(cpuMax) <= 0) {
+                return;
+            }
+            quota = startsWith(0, MAX) ? -1 : parseLong(0, buffer.limit());
+            int space = 0;
+            while (space < buffer.limit() && content[space] != ' ') {
+                space++;
+            }
+            period = parseLong(space, buffer.limit());
+        } else {
+            if (read(cpuPeriod) <= 0) {
+                return;
+            }
+            period = parseLong(0, buffer.limit());
+            if (read(cpuMax) <= 0) {
+                return;
+            }
+            quota = parseLong(0, buffer.limit());
+        }
+        cpuQuotaCores = quota > 0 && period > 0 ? (double) quota / period : -1;
+    }
+
+    /**
+     * @return channel or null if the file is not readable
+     */
+    private static FileChannel open(Path path) {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.printf("Closing cgroup file fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Read a whole file from position 0 into the buffer, which also renders kernel files anew.
+     *
+     * @return bytes read or -1 if the file is not readable
+     */
+    private int read(FileChannel channel) {
+        buffer.clear();
+        if (channel == null) {
+            buffer.limit(0);
+            return -1;
+        }
+        try {
+            long position = 0;
+            int read;
+            while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0) {
+                position += read;
+            }
+        } catch (IOException e) {
+            buffer.limit(0);
+            return -1;
+        }
+        buffer.flip();
+        return buffer.limit();
+    }
+
+    /**
+     * @return value of the line {@code KEY VALUE} or -1 if the key is missing
+     */
+    private long keyed(byte[] key) {
+        int line = lineStartingWith(key);
+        return line < 0 ? -1 : parseLong(line + key.length + 1, buffer.limit());
+    }
+
+    /**
+     * @return avg10 of the line {@code some|full avg10=.. avg60=.. avg300=.. total=..} or -1 if the line is missing
+     */
+    private double pressureAvg10(byte[] kind) {
+        int line = lineStartingWith(kind);
+        if (line < 0) {
+            return -1;
+        }
+        for (int i = line; i < buffer.limit() - AVG10.length && content[i] != '\n'; i++) {
+            if (startsWith(i, AVG10)) {
+                return parseDecimal(i + AVG10.length);
+            }
+        }
+        return -1;
+    }
+
+    private int lineStartingWith(byte[] key) {
+        int limit = buffer.limit();
+        for (int line = 0; line < limit; ) {
+            if (startsWith(line, key) && line + key.length < limit && content[line + key.length] == ' ') {
+                return line;
+            }
+            while (line < limit && content[line] != '\n') {
+                line++;
+            }
+            line++;
+        }
+        return -1;
+    }
+
+    private boolean startsWith(int offset, byte[] prefix) {
+        if (offset + prefix.length > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseLong(int offset, int limit) {
+        long value = 0;
+        int i = offset;
+        while (i < limit && content[i] == ' ') {
+            i++;
+        }
+        int start = i;
+        for (; i < limit && content[i] >= '0' && content[i] <= '9'; i++) {
+            value = value * 10 + (content[i] - '0');
+        }
+        return i == start ? -1 : value;
+    }
+
+    private double parseDecimal(int offset) {
+        long value = 0;
+        long scale = 1;
+        boolean fraction = false;
+        for (int i = offset; i < buffer.limit(); i++) {
+            byte digit = content[i];
+            if (digit == '.' && !fraction) {
+                fraction = true;
+            } else if (digit >= '0' && digit <= '9') {
+                value = value * 10 + (digit - '0');
+                scale = fraction ? scale * 10 : scale;
+            } else {
+                break;
+            }
+        }
+        return (double) value / scale;
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
+    }
+}
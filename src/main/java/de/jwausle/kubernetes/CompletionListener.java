@@ -0,0 +1,32 @@
+package de.jwausle.kubernetes;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+/**
+ * Run a callback when a suspended request completes, also after its timeout or error.
+ */
+class CompletionListener implements AsyncListener {
+    private final Runnable onComplete;
+
+    CompletionListener(Runnable onComplete) {
+        this.onComplete = onComplete;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        onComplete.run();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+}
@@ -0,0 +1,184 @@
+package de.jwausle.kubernetes;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Adaptive limit of concurrent requests with fast rejection beyond the limit. <br/>
+ * {@link #tryAcquire()} admits a request only below the current limit, {@link #release(long)} reports its latency. Every
+ * {@code UPDATE_PERIOD} the latencies of the period adjust the limit by the selected algorithm:
+ * <li>AIMD     - increase by 1 while the average latency stays below {@code latencyThreshold}, else multiply by 0.9</li>
+ * <li>GRADIENT - scale by the gradient of the long term to the short term average latency plus a queue of sqrt(limit)</li>
+ * The limit only grows while at least half of it is in use. The limiter is saturated after a period with rejections
+ * and recovered after {@code RECOVERY_PERIODS} periods without, each change is reported to the saturation listener.
+ */
+public class ConcurrencyLimiter {
+    private static final long UPDATE_PERIOD_IN_MILLIS = 500;
+    private static final int RECOVERY_PERIODS = 4;
+    private static final int MIN_LIMIT = 1;
+    private static final int MAX_LIMIT = 1000;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double GRADIENT_TOLERANCE = 1.5;
+    private static final double GRADIENT_SMOOTHING = 0.2;
+    private static final double LONG_TERM_SMOOTHING = 0.05;
+
+    public enum Algorithm {
+        AIMD, GRADIENT;
+
+        public static Algorithm of(String algorithm) {
+            return Algorithm.valueOf(algorithm.trim().toUpperCase());
+        }
+    }
+
+    private final Algorithm algorithm;
+    private final long latencyThresholdNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder latencySumNanos = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+    private final LongAdder rejectedInPeriod = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final ScheduledExecutorService controller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "concurrency-limit-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Consumer<Boolean> saturationListener = saturated -> {
+    };
+    private volatile int limit;
+    private volatile boolean saturated = false;
+    // only touched by the controller thread
+    private double exactLimit;
+    private double longTermLatencyNanos = 0;
+    private int periodsWithoutRejection = 0;
+
+    /**
+     * @param algorithm        algorithm to adapt the limit
+     * @param initialLimit     limit until the first latencies are measured
+     * @param latencyThreshold average latency in millis, above which {@code AIMD} backs off
+     */
+    public ConcurrencyLimiter(Algorithm algorithm, int initialLimit, long latencyThreshold) {
+        if (initialLimit < MIN_LIMIT || initialLimit > MAX_LIMIT) {
+            throw new IllegalArgumentException(initialLimit + " must be between [" + MIN_LIMIT + " - " + MAX_LIMIT + "]. Its a request count.");
+        }
+        this.algorithm = algorithm;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+        this.limit = initialLimit;
+        this.exactLimit = initialLimit;
+        controller.scheduleAtFixedRate(this::update, UPDATE_PERIOD_IN_MILLIS, UPDATE_PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Listen to saturation changes, called with {@code true} when saturated and {@code false} when recovered.
+     */
+    public void onSaturation(Consumer<Boolean> listener) {
+        this.saturationListener = listener;
+    }
+
+    /**
+     * @return true if the request is admitted and must be released, false if it must be rejected
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejectedInPeriod.increment();
+                rejected.increment();
+                return false;
+            } else if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release an admitted request.
+     *
+     * @param latencyNanos time between acquire and release
+     */
+    public void release(long latencyNanos) {
+        inFlight.decrementAndGet();
+        latencySumNanos.add(latencyNanos);
+        latencyCount.increment();
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s limit '%s' with '%s' in flight and '%s' rejected%s", algorithm, limit, inFlight.get(), rejected.sum(), saturated ? " - saturated" : "");
+    }
+
+    private void update() {
+        try {
+            long count = latencyCount.sumThenReset();
+            long sum = latencySumNanos.sumThenReset();
+            if (count > 0) {
+                adapt(sum / (double) count);
+            }
+            updateSaturation(rejectedInPeriod.sumThenReset() > 0);
+        } catch (RuntimeException e) {
+            System.out.printf("Concurrency limit update fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    private void adapt(double latencyNanos) {
+        boolean inUse = inFlight.get() * 2 >= limit || rejectedInPeriod.sum() > 0;
+        double newLimit;
+        if (algorithm == Algorithm.AIMD) {
+            if (latencyNanos > latencyThresholdNanos) {
+                newLimit = exactLimit * BACKOFF_RATIO;
+            } else {
+                newLimit = inUse ? exactLimit + 1 : exactLimit;
+            }
+        } else {
+            longTermLatencyNanos = longTermLatencyNanos == 0 ?
+                    latencyNanos :
+                    longTermLatencyNanos * (1 - LONG_TERM_SMOOTHING) + latencyNanos * LONG_TERM_SMOOTHING;
+            if (longTermLatencyNanos > 2 * latencyNanos) {
+                // recover fast after a latency drop instead of keeping the old baseline
+                longTermLatencyNanos = (longTermLatencyNanos + latencyNanos) / 2;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, GRADIENT_TOLERANCE * longTermLatencyNanos / latencyNanos));
+            double target = exactLimit * gradient + Math.sqrt(exactLimit);
+            newLimit = exactLimit * (1 - GRADIENT_SMOOTHING) + target * GRADIENT_SMOOTHING;
+            if (!inUse && newLimit > exactLimit) {
+                newLimit = exactLimit;
+            }
+        }
+        exactLimit = Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, newLimit));
+        limit = (int) exactLimit;
+    }
+
+    private void updateSaturation(boolean rejectedInPeriod) {
+        if (rejectedInPeriod) {
+            periodsWithoutRejection = 0;
+            if (!saturated) {
+                saturated = true;
+                System.out.println(">> concurrency limit saturated with " + this);
+                saturationListener.accept(true);
+            }
+        } else if (saturated && ++periodsWithoutRejection >= RECOVERY_PERIODS) {
+            saturated = false;
+            System.out.println(">> concurrency limit recovered with " + this);
+            saturationListener.accept(false);
+        }
+    }
+}
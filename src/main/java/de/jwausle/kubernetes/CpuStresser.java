@@ -0,0 +1,171 @@
+package de.jwausle.kubernetes;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process cpu stress engine to hold a target cpu utilization of this java process. <br/>
+ * Each worker thread spins for {@code duty * DUTY_PERIOD} and sleeps the rest of the period. A controller compares the
+ * measured process cpu time with the target every {@code CONTROL_PERIOD} and corrects the duty of all workers.
+ * <li>{@code 1.5} - hold 1.5 cores</li>
+ * <li>{@code 70%} - hold 70% of the cgroup cpu quota from {@link CgroupTelemetry} or of all available processors without
+ * quota</li>
+ */
+public class CpuStresser {
+    private static final long DUTY_PERIOD_IN_MILLIS = 100;
+    private static final long CONTROL_PERIOD_IN_MILLIS = 500;
+    private static final double CONTROL_GAIN = 0.5;
+
+    private final CgroupTelemetry cgroup;
+    private final com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final ScheduledExecutorService controller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cpu-stress-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // guarded by 'this', also the controller reads them under the lock
+    private final List<Thread> workers = new ArrayList<>();
+    private ScheduledFuture<?> control;
+    private ScheduledFuture<?> timeout;
+    private volatile double duty = 0;
+    private volatile double targetCores = 0;
+    private volatile double achievedCores = 0;
+    private long lastCpuNanos;
+    private long lastWallNanos;
+
+    public CpuStresser(CgroupTelemetry cgroup) {
+        this.cgroup = Objects.requireNonNull(cgroup, "'cgroup' must not be null.");
+    }
+
+    /**
+     * Parse a cpu target either as cores {@code 1.5} or as percentage of the cpu quota {@code 70%}.
+     *
+     * @param target cores or percentage value
+     * @return target in cores
+     */
+    public double parseCores(String target) {
+        String trimmed = target.trim();
+        double cores = trimmed.endsWith("%") ?
+                Double.valueOf(trimmed.substring(0, trimmed.length() - 1)) / 100 * quotaCores() :
+                Double.valueOf(trimmed);
+        if (cores < 0 || Double.isNaN(cores) || Double.isInfinite(cores)) {
+            throw new IllegalArgumentException(target + " must be a positive cores value or percentage.");
+        }
+        return cores;
+    }
+
+    /**
+     * @return cgroup v2/v1 cpu quota in cores or all available processors if no quota is set
+     */
+    public double quotaCores() {
+        double quota = cgroup.cpuQuotaCores();
+        return quota > 0 ? quota : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Start or retarget the worker threads to hold {@code targetCores} of process cpu utilization.
+     *
+     * @param targetCores cores to hold, 0 stops all workers
+     * @param period      optional period until the workers stop, default forever
+     */
+    public synchronized void start(double targetCores, Optional<Duration> period) {
+        stop();
+        if (targetCores <= 0) {
+            return;
+        }
+        this.targetCores = targetCores;
+        this.duty = targetCores / Math.ceil(targetCores);
+        for (int i = 0; i < Math.ceil(targetCores); i++) {
+            Thread worker = new Thread(this::spin, "cpu-stress-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        lastCpuNanos = os.getProcessCpuTime();
+        lastWallNanos = System.nanoTime();
+        control = controller.scheduleAtFixedRate(this::control, CONTROL_PERIOD_IN_MILLIS, CONTROL_PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+        timeout = period.map(duration -> controller.schedule(this::stop, duration.toMillis(), TimeUnit.MILLISECONDS)).orElse(null);
+        System.out.println(">> start cpu stress with '" + workers.size() + "' workers for target '" + targetCores + "' cores");
+    }
+
+    public synchronized void stop() {
+        if (control != null) {
+            control.cancel(false);
+            control = null;
+        }
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+        workers.forEach(Thread::interrupt);
+        workers.clear();
+        targetCores = 0;
+        achievedCores = 0;
+    }
+
+    public boolean isRunning() {
+        return targetCores > 0;
+    }
+
+    public double targetCores() {
+        return targetCores;
+    }
+
+    public double achievedCores() {
+        return achievedCores;
+    }
+
+    @Override
+    public String toString() {
+        return isRunning() ?
+                String.format("cpu '%.2f' of requested '%.2f' cores with '%s' workers at duty '%.2f'", achievedCores, targetCores, workers.size(), duty) :
+                "no cpu stress";
+    }
+
+    private synchronized void control() {
+        if (!isRunning()) {
+            return;
+        }
+        long cpuNanos = os.getProcessCpuTime();
+        long wallNanos = System.nanoTime();
+        achievedCores = (double) (cpuNanos - lastCpuNanos) / (wallNanos - lastWallNanos);
+        lastCpuNanos = cpuNanos;
+        lastWallNanos = wallNanos;
+
+        int workerCount = Math.max(1, workers.size());
+        double nextDuty = duty + CONTROL_GAIN * (targetCores - achievedCores) / workerCount;
+        duty = Math.max(0, Math.min(1, nextDuty));
+    }
+
+    private void spin() {
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(DUTY_PERIOD_IN_MILLIS);
+        long sink = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
+            long busyNanos = (long) (duty * periodNanos);
+            while (System.nanoTime() - start < busyNanos) {
+                sink = sink * 31 + start;
+            }
+            long idleNanos = periodNanos - (System.nanoTime() - start);
+            if (idleNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(idleNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println(">> cpu stress sink " + sink);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package de.jwausle.kubernetes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Burn a fixed amount of CPU time per request by hashing a block of random bytes with {@code SHA-256}. <br/>
+ * The cost is measured with the thread cpu clock, so it is independent of the current system load. A workload needs a
+ * JVM with thread cpu time supported and enabled, without the clock a slice would never end.
+ * <li>{@code cpuMicros}   - cpu time in micro seconds to burn per call, 0 disables the workload</li>
+ * <li>{@code parallelism} - split the cpu time into slices that run in parallel on a fork join pool</li>
+ */
+public class CpuWorkload {
+    private static final int BLOCK_SIZE = 1024;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long cpuMicros;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    public CpuWorkload(long cpuMicros, int parallelism) {
+        if (cpuMicros < 0) {
+            throw new IllegalArgumentException(cpuMicros + " must be greather or equal than 0. Its a micro seconds value.");
+        } else if (parallelism < 1) {
+            throw new IllegalArgumentException(parallelism + " must be greather than 0. Its a thread count.");
+        } else if (cpuMicros > 0 && !(THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled())) {
+            throw new IllegalArgumentException(cpuMicros + " cpu micros need thread cpu time, which is not supported or disabled by this JVM.");
+        }
+        this.cpuMicros = cpuMicros;
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    public boolean isEnabled() {
+        return cpuMicros > 0;
+    }
+
+    /**
+     * Burn the configured cpu time on the calling thread or, with {@code parallelism > 1}, on the fork join pool.
+     *
+     * @return consumed cpu time of all slices in nano seconds
+     */
+    public long burn() {
+        if (!isEnabled()) {
+            return 0;
+        } else if (pool == null) {
+            return burnSlice(cpuMicros * 1000);
+        }
+        return pool.invoke(new Slice(cpuMicros * 1000, parallelism));
+    }
+
+    @Override
+    public String toString() {
+        return "'" + cpuMicros + "' cpu micros per request in '" + parallelism + "' slices";
+    }
+
+    private static long burnSlice(long cpuNanos) {
+        MessageDigest digest = sha256();
+        byte[] block = new byte[BLOCK_SIZE];
+        ThreadLocalRandom.current().nextBytes(block);
+
+        long start = THREADS.getCurrentThreadCpuTime();
+        long consumed = 0;
+        while (consumed < cpuNanos) {
+            digest.update(block);
+            System.arraycopy(digest.digest(), 0, block, 0, 32);
+            consumed = THREADS.getCurrentThreadCpuTime() - start;
+        }
+        return consumed;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Split the cpu time into equal slices until one slice remains and burn it.
+     */
+    private static class Slice extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final long cpuNanos;
+        private final int slices;
+
+        Slice(long cpuNanos, int slices) {
+            this.cpuNanos = cpuNanos;
+            this.slices = slices;
+        }
+
+        @Override
+        protected Long compute() {
+            if (slices <= 1) {
+                return burnSlice(cpuNanos);
+            }
+            int leftSlices = slices / 2;
+            Slice left = new Slice(cpuNanos * leftSlices / slices, leftSlices);
+            Slice right = new Slice(cpuNanos - cpuNanos * leftSlices / slices, slices - leftSlices);
+            left.fork();
+            return right.compute() + left.join();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package de.jwausle.kubernetes;
+
+import com.codahale.metrics.Timer;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Call graph simulation, every request calls the configured downstream urls with a pooled async jetty {@link HttpClient}:
+ * <li>PARALLEL - all urls at once, the call completes with the slowest hop</li>
+ * <li>SEQUENCE - one url after the other, the call stops at the first failed hop</li>
+ * Each attempt fails after {@code timeout}. If {@code hedgeDelay} is set and a hop did not answer within it, a second
+ * attempt is sent, the first answer wins and the other attempt is aborted. A hop fails on error, timeout or a non 2xx
+ * status, the response bodies are discarded.
+ */
+public class Downstream {
+    private static final int MAX_CONNECTIONS_PER_URL = 256;
+    private static final int MAX_CLIENT_THREADS = 32;
+
+    public enum Mode {
+        PARALLEL, SEQUENCE;
+
+        public static Mode of(String mode) {
+            return Mode.valueOf(mode.trim().toUpperCase());
+        }
+    }
+
+    private final List<URI> urls;
+    private final Mode mode;
+    private final Duration timeout;
+    private final Duration hedgeDelay;
+    private final Timer hopTimer;
+    private final HttpClient client;
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+
+    /**
+     * Result of one downstream url.
+     */
+    public static class Hop {
+        private final URI url;
+        private final int status;
+        private final long nanos;
+        private final boolean hedged;
+        private final String failure;
+
+        Hop(URI url, int status, long nanos, boolean hedged, String failure) {
+            this.url = url;
+            this.status = status;
+            this.nanos = nanos;
+            this.hedged = hedged;
+            this.failure = failure;
+        }
+
+        public boolean isSuccess() {
+            return failure == null && status >= 200 && status < 300;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s in '%s' millis%s", url, failure == null ? status : failure, TimeUnit.NANOSECONDS.toMillis(nanos), hedged ? " hedged" : "");
+        }
+    }
+
+    /**
+     * Result of all downstream urls of one request.
+     */
+    public static class Call {
+        private final Mode mode;
+        private final List<Hop> hops;
+        private final long nanos;
+
+        Call(Mode mode, List<Hop> hops, long nanos) {
+            this.mode = mode;
+            this.hops = Collections.unmodifiableList(hops);
+            this.nanos = nanos;
+        }
+
+        public List<Hop> hops() {
+            return hops;
+        }
+
+        public boolean isSuccess() {
+            return hops.stream().allMatch(Hop::isSuccess);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("downstream %s in '%s' millis %s", mode.name().toLowerCase(), TimeUnit.NANOSECONDS.toMillis(nanos),
+                    hops.stream().map(Hop::toString).collect(Collectors.joining(", ", "[", "]")));
+        }
+    }
+
+    /**
+     * @param urls       downstream urls, comma separated, empty disables the downstream calls
+     * @param mode       parallel or sequence
+     * @param timeout    timeout of each attempt
+     * @param hedgeDelay delay of the hedged attempt, zero disables hedging
+     * @param hopTimer   timer of every hop
+     */
+    public Downstream(String urls, Mode mode, Duration timeout, Duration hedgeDelay, Timer hopTimer) {
+        this.urls = Arrays.stream(urls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(URI::create)
+                .collect(Collectors.toList());
+        this.mode = Objects.requireNonNull(mode, "'mode' must not be null.");
+        this.timeout = Objects.requireNonNull(timeout, "'timeout' must not be null.");
+        this.hedgeDelay = Objects.requireNonNull(hedgeDelay, "'hedgeDelay' must not be null.");
+        this.hopTimer = Objects.requireNonNull(hopTimer, "'hopTimer' must not be null.");
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException(timeout + " must be greather than 0. Its a hop timeout.");
+        }
+        this.client = this.urls.isEmpty() ? null : startClient(timeout);
+    }
+
+    public boolean isEnabled() {
+        return client != null;
+    }
+
+    /**
+     * Call all downstream urls.
+     *
+     * @return call completing after the last hop, never exceptionally
+     */
+    public CompletableFuture<Call> call() {
+        long start = System.nanoTime();
+        CompletableFuture<List<Hop>> hops;
+        if (mode == Mode.PARALLEL) {
+            List<CompletableFuture<Hop>> calls = urls.stream().map(this::hop).collect(Collectors.toList());
+            hops = CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(__ -> calls.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        } else {
+            hops = CompletableFuture.completedFuture(new ArrayList<>());
+            for (URI url : urls) {
+                hops = hops.thenCompose(done -> done.isEmpty() || done.get(done.size() - 1).isSuccess() ?
+                        hop(url).thenApply(hop -> {
+                            done.add(hop);
+                            return done;
+                        }) :
+                        CompletableFuture.completedFuture(done));
+            }
+        }
+        return hops.thenApply(done -> new Call(mode, done, System.nanoTime() - start));
+    }
+
+    /**
+     * @return longest possible duration of a call
+     */
+    public Duration maxDuration() {
+        Duration hop = timeout.plus(hedgeDelay);
+        return mode == Mode.PARALLEL || urls.isEmpty() ? hop : hop.multipliedBy(urls.size());
+    }
+
+    /**
+     * Stop the client, pending hops fail.
+     */
+    public void stop() {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.stop();
+            System.out.println(">> stop downstream client");
+        } catch (Exception e) {
+            System.out.printf("Stopping downstream client fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    public long failed() {
+        return failed.sum();
+    }
+
+    public long hedged() {
+        return hedged.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s with timeout '%s' millis%s", mode.name().toLowerCase(), urls, timeout.toMillis(),
+                hedgeDelay.isZero() ? "" : " and hedging after '" + hedgeDelay.toMillis() + "' millis");
+    }
+
+    private CompletableFuture<Hop> hop(URI url) {
+        long start = System.nanoTime();
+        CompletableFuture<Hop> hop = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        Request first = attempt(url, start, false, hop, pending);
+        if (!hedgeDelay.isZero()) {
+            client.getScheduler().schedule(() -> {
+                if (pending.getAndUpdate(current -> current > 0 ? current + 1 : current) > 0) {
+                    hedged.increment();
+                    Request second = attempt(url, start, true, hop, pending);
+                    hop.whenComplete((__, ___) -> {
+                        first.abort(new CancellationException("hedged attempt won"));
+                        second.abort(new CancellationException("first attempt won"));
+                    });
+                }
+            }, hedgeDelay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return hop.whenComplete((done, __) -> {
+            hopTimer.update(done.nanos, TimeUnit.NANOSECONDS);
+            if (!done.isSuccess()) {
+                failed.increment();
+            }
+        });
+    }
+
+    /**
+     * Send one attempt of a hop. The first answer completes the hop, a failure only if no other attempt is pending.
+     */
+    private Request attempt(URI url, long start, boolean hedge, CompletableFuture<Hop> hop, AtomicInteger pending) {
+        Request request = client.newRequest(url).timeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        request.send(result -> {
+            long nanos = System.nanoTime() - start;
+            if (result.isFailed()) {
+                Throwable failure = result.getFailure();
+                if (pending.decrementAndGet() == 0 && !(failure instanceof CancellationException)) {
+                    hop.complete(new Hop(url, 0, nanos, hedge, failure.getClass().getSimpleName()));
+                }
+            } else {
+                pending.decrementAndGet();
+                hop.complete(new Hop(url, result.getResponse().getStatus(), nanos, hedge, null));
+            }
+        });
+        return request;
+    }
+
+    private static HttpClient startClient(Duration timeout) {
+        QueuedThreadPool executor = new QueuedThreadPool(MAX_CLIENT_THREADS);
+        executor.setName("downstream-client");
+        executor.setDaemon(true);
+        HttpClient client = new HttpClient();
+        client.setExecutor(executor);
+        client.setScheduler(new ScheduledExecutorScheduler("downstream-scheduler", true));
+        client.setMaxConnectionsPerDestination(MAX_CONNECTIONS_PER_URL);
+        client.setConnectTimeout(timeout.toMillis());
+        client.setFollowRedirects(false);
+        try {
+            client.start();
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return client;
+    }
+}
@@ -0,0 +1,242 @@
+package de.jwausle.kubernetes;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import io.prometheus.client.Collector;
+import org.HdrHistogram.Histogram;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Garbage collection pauses, allocation and promotion reported by GC notifications, to tie request latency to the GC
+ * cost of the memory pressure. <br/>
+ * Every stop-the-world collection is recorded as pause in a HdrHistogram per collector and cause. The notifications of
+ * concurrent collectors like {@code ZGC Cycles}, {@code Shenandoah Cycles} or {@code G1 Concurrent GC} cover a whole
+ * cycle running next to the application, they are no pauses and only count for allocation and promotion. Their pauses
+ * are reported by the pause notifications like {@code ZGC Pauses}, which in turn do not count for allocation and
+ * promotion. The heap allocated since the previous collection is its heap usage before minus the heap usage after the
+ * previous one, the promoted bytes are the growth of the old generation by a collection. The rates are taken over the
+ * last collection cycle.
+ * <li>jvm_gc_pause_seconds{gc,cause,quantile}  - p50, p99 and p99.9 of the pauses since start with count and sum</li>
+ * <li>jvm_gc_pause_max_seconds{gc,cause}       - longest pause since start</li>
+ * <li>jvm_gc_allocated_bytes_total             - heap allocated since start</li>
+ * <li>jvm_gc_promoted_bytes_total              - bytes promoted to the old generation since start</li>
+ * <li>jvm_gc_allocation_rate_bytes             - allocated bytes per second of the last cycle</li>
+ * <li>jvm_gc_promotion_rate_bytes              - promoted bytes per second of the last cycle</li>
+ * Listeners registered by {@link #onCollection(LongConsumer)} get the heap used after each accounted collection.
+ */
+public class GcTelemetry extends Collector {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final double MICROS_PER_SECOND = 1e6;
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    private final Map<String, Pause> pauses = new ConcurrentHashMap<>();
+    private final Set<String> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .map(MemoryPoolMXBean::getName)
+            .collect(Collectors.toSet());
+    private final Set<String> oldPools = heapPools.stream()
+            .filter(pool -> pool.contains("Old") || pool.contains("Tenured"))
+            .collect(Collectors.toSet());
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder promotedBytes = new LongAdder();
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+    // guarded by 'this'
+    private long heapAfterLastGc = -1;
+    private long lastGcEndMillis = 0;
+    private volatile double allocationRate = 0;
+    private volatile double promotionRate = 0;
+
+    /**
+     * Pauses of one collector and cause.
+     */
+    private static class Pause {
+        private final String gc;
+        private final String cause;
+        // guarded by 'this'
+        private final Histogram histogram = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private long sumMicros = 0;
+
+        Pause(String gc, String cause) {
+            this.gc = gc;
+            this.cause = cause;
+        }
+
+        synchronized void record(long micros) {
+            histogram.recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+            sumMicros += micros;
+        }
+
+        /**
+         * @return quantiles in micros followed by the max, the count and the sum
+         */
+        synchronized long[] values() {
+            long[] values = new long[QUANTILES.length + 3];
+            for (int i = 0; i < QUANTILES.length; i++) {
+                values[i] = histogram.getValueAtPercentile(QUANTILES[i] * 100);
+            }
+            values[QUANTILES.length] = histogram.getMaxValue();
+            values[QUANTILES.length + 1] = histogram.getTotalCount();
+            values[QUANTILES.length + 2] = sumMicros;
+            return values;
+        }
+    }
+
+    public GcTelemetry() {
+        ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .filter(NotificationEmitter.class::isInstance)
+                .map(NotificationEmitter.class::cast)
+                .forEach(emitter -> emitter.addNotificationListener((notification, handback) -> {
+                    if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                        onGarbageCollection(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+                    }
+                }, null, null));
+    }
+
+    /**
+     * Listen to collections, called with the heap used after each collection on the notification thread.
+     */
+    public void onCollection(LongConsumer listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return pauses since start
+     */
+    public long count() {
+        return pauses.values().stream().mapToLong(pause -> pause.values()[QUANTILES.length + 1]).sum();
+    }
+
+    /**
+     * @return paused seconds since start
+     */
+    public double pausedSeconds() {
+        return pauses.values().stream().mapToLong(pause -> pause.values()[QUANTILES.length + 2]).sum() / MICROS_PER_SECOND;
+    }
+
+    /**
+     * @return longest pause since start in millis
+     */
+    public double maxPauseMillis() {
+        return pauses.values().stream().mapToLong(pause -> pause.values()[QUANTILES.length]).max().orElse(0) / 1e3;
+    }
+
+    /**
+     * @return allocated bytes per second of the last collection cycle
+     */
+    public double allocationRate() {
+        return allocationRate;
+    }
+
+    /**
+     * @return promoted bytes per second of the last collection cycle
+     */
+    public double promotionRate() {
+        return promotionRate;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> durations = new ArrayList<>();
+        List<MetricFamilySamples.Sample> maxima = new ArrayList<>();
+        pauses.values().forEach(pause -> {
+            List<String> labels = Arrays.asList(pause.gc, pause.cause);
+            long[] values = pause.values();
+            for (int i = 0; i < QUANTILES.length; i++) {
+                durations.add(new MetricFamilySamples.Sample("jvm_gc_pause_seconds", Arrays.asList("gc", "cause", "quantile"),
+                        Arrays.asList(pause.gc, pause.cause, Double.toString(QUANTILES[i])), values[i] / MICROS_PER_SECOND));
+            }
+            durations.add(new MetricFamilySamples.Sample("jvm_gc_pause_seconds_count", Arrays.asList("gc", "cause"), labels, values[QUANTILES.length + 1]));
+            durations.add(new MetricFamilySamples.Sample("jvm_gc_pause_seconds_sum", Arrays.asList("gc", "cause"), labels, values[QUANTILES.length + 2] / MICROS_PER_SECOND));
+            maxima.add(new MetricFamilySamples.Sample("jvm_gc_pause_max_seconds", Arrays.asList("gc", "cause"), labels, values[QUANTILES.length] / MICROS_PER_SECOND));
+        });
+        return Arrays.asList(
+                new MetricFamilySamples("jvm_gc_pause_seconds", Type.SUMMARY, "GC pauses per collector and cause since start.", durations),
+                new MetricFamilySamples("jvm_gc_pause_max_seconds", Type.GAUGE, "Longest GC pause per collector and cause since start.", maxima),
+                gauge("jvm_gc_allocated_bytes_total", Type.COUNTER, "Heap allocated since start.", allocatedBytes.sum()),
+                gauge("jvm_gc_promoted_bytes_total", Type.COUNTER, "Bytes promoted to the old generation since start.", promotedBytes.sum()),
+                gauge("jvm_gc_allocation_rate_bytes", Type.GAUGE, "Allocated bytes per second of the last GC cycle.", allocationRate),
+                gauge("jvm_gc_promotion_rate_bytes", Type.GAUGE, "Promoted bytes per second of the last GC cycle.", promotionRate));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("'%s' gc pauses ('%.3f' seconds total, max '%.1f' millis) at allocation '%.1f' MB/s and promotion '%.1f' MB/s",
+                count(), pausedSeconds(), maxPauseMillis(), allocationRate / BYTES_PER_MB, promotionRate / BYTES_PER_MB);
+    }
+
+    private static MetricFamilySamples gauge(String name, Type type, String help, double value) {
+        return new MetricFamilySamples(name, type, help,
+                Collections.singletonList(new MetricFamilySamples.Sample(name, Collections.emptyList(), Collections.emptyList(), value)));
+    }
+
+    private void onGarbageCollection(GarbageCollectionNotificationInfo info) {
+        GcInfo gcInfo = info.getGcInfo();
+        if (!isConcurrent(info)) {
+            String key = info.getGcName() + '\n' + info.getGcCause();
+            Pause pause = pauses.get(key);
+            if (pause == null) {
+                pause = pauses.computeIfAbsent(key, __ -> new Pause(info.getGcName(), info.getGcCause()));
+            }
+            pause.record(TimeUnit.MILLISECONDS.toMicros(gcInfo.getDuration()));
+        }
+        if (info.getGcName().endsWith("Pauses")) {
+            // the heap is accounted by the cycle the pause belongs to
+            return;
+        }
+
+        Map<String, MemoryUsage> beforeGc = gcInfo.getMemoryUsageBeforeGc();
+        Map<String, MemoryUsage> afterGc = gcInfo.getMemoryUsageAfterGc();
+        long heapBeforeGc = used(beforeGc, heapPools);
+        long heapAfterGc = used(afterGc, heapPools);
+        long promoted = Math.max(0, used(afterGc, oldPools) - used(beforeGc, oldPools));
+        promotedBytes.add(promoted);
+        synchronized (this) {
+            long allocated = heapAfterLastGc < 0 ? 0 : Math.max(0, heapBeforeGc - heapAfterLastGc);
+            allocatedBytes.add(allocated);
+            double cycleSeconds = Math.max(1, gcInfo.getEndTime() - lastGcEndMillis) / 1e3;
+            if (heapAfterLastGc >= 0) {
+                allocationRate = allocated / cycleSeconds;
+            }
+            promotionRate = promoted / cycleSeconds;
+            heapAfterLastGc = heapAfterGc;
+            lastGcEndMillis = gcInfo.getEndTime();
+        }
+        listeners.forEach(listener -> listener.accept(heapAfterGc));
+    }
+
+    /**
+     * @return true if the collection ran concurrently to the application, so its duration is no pause
+     */
+    private static boolean isConcurrent(GarbageCollectionNotificationInfo info) {
+        String gc = info.getGcName();
+        return gc.endsWith("Cycles") || gc.contains("Concurrent") || info.getGcAction().contains("cycle");
+    }
+
+    private static long used(Map<String, MemoryUsage> usage, Set<String> pools) {
+        return usage.entrySet().stream()
+                .filter(pool -> pools.contains(pool.getKey()))
+                .mapToLong(pool -> pool.getValue().getUsed())
+                .sum();
+    }
+}
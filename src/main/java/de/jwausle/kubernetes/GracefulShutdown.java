@@ -0,0 +1,143 @@
+package de.jwausle.kubernetes;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Drain the http server before the process exits, triggered by {@code /kill} or by {@code SIGTERM} via shutdown hook:
+ * <li>1. switch readiness to UNREADY, so the endpoints get removed from the service</li>
+ * <li>2. keep serving for {@code propagationDelay} until the removal reached all nodes</li>
+ * <li>3. close the connectors, so no new connection is accepted</li>
+ * <li>4. wait until all in-flight requests completed or {@code timeout} passed</li>
+ * <li>5. release the resources the requests depend on, like the clients of downstream calls</li>
+ * Requests in flight when the connectors are closed or arriving later on kept alive connections count as drained when
+ * they complete in time and as aborted if they are still in flight at the timeout. Both counts are updated while
+ * draining.
+ * The jetty {@link Server} is captured as spark {@link JettyServerFactory} to close its connectors.
+ */
+public class GracefulShutdown implements JettyServerFactory {
+    private static final long POLL_PERIOD_IN_MILLIS = 50;
+
+    private final Runnable unready;
+    private final Runnable release;
+    private final LongSupplier inFlight;
+    private final LongSupplier completed;
+    private final Duration propagationDelay;
+    private final Duration timeout;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private volatile Server server;
+    private volatile long drained = 0;
+    private volatile long aborted = 0;
+
+    /**
+     * @param unready          switch readiness to UNREADY
+     * @param inFlight         requests started but not completed
+     * @param completed        requests completed since the start
+     * @param release          release the resources of the requests after they completed
+     * @param propagationDelay time to keep serving after the switch to UNREADY
+     * @param timeout          time to wait for the in-flight requests after the connectors are closed
+     */
+    public GracefulShutdown(Runnable unready, LongSupplier inFlight, LongSupplier completed, Runnable release, Duration propagationDelay, Duration timeout) {
+        this.unready = Objects.requireNonNull(unready, "'unready' must not be null.");
+        this.release = Objects.requireNonNull(release, "'release' must not be null.");
+        this.inFlight = Objects.requireNonNull(inFlight, "'inFlight' must not be null.");
+        this.completed = Objects.requireNonNull(completed, "'completed' must not be null.");
+        this.propagationDelay = Objects.requireNonNull(propagationDelay, "'propagationDelay' must not be null.");
+        this.timeout = Objects.requireNonNull(timeout, "'timeout' must not be null.");
+    }
+
+    @Override
+    public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+        // same defaults as the spark jetty server factory
+        return capture(maxThreads > 0 ?
+                new Server(new QueuedThreadPool(maxThreads, minThreads > 0 ? minThreads : 8, threadTimeoutMillis > 0 ? threadTimeoutMillis : 60000)) :
+                new Server());
+    }
+
+    @Override
+    public Server create(ThreadPool threadPool) {
+        return capture(threadPool != null ? new Server(threadPool) : new Server());
+    }
+
+    /**
+     * Drain on {@code SIGTERM}, the JVM exits after the hook returns.
+     */
+    public void registerShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "graceful-shutdown"));
+    }
+
+    /**
+     * Run the drain sequence once, later calls return immediately.
+     */
+    public void drain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            System.out.println(">> start graceful shutdown with " + this);
+            unready.run();
+            TimeUnit.MILLISECONDS.sleep(propagationDelay.toMillis());
+            long completedOnClose = completed.getAsLong();
+            closeConnectors();
+            long deadline = System.nanoTime() + timeout.toNanos();
+            while (inFlight.getAsLong() > 0 && System.nanoTime() < deadline) {
+                drained = completed.getAsLong() - completedOnClose;
+                TimeUnit.MILLISECONDS.sleep(POLL_PERIOD_IN_MILLIS);
+            }
+            drained = completed.getAsLong() - completedOnClose;
+            aborted = inFlight.getAsLong();
+            release.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(">> finish graceful shutdown with '" + drained + "' drained and '" + aborted + "' aborted requests");
+    }
+
+    public boolean isDraining() {
+        return draining.get();
+    }
+
+    public long drained() {
+        return drained;
+    }
+
+    public long aborted() {
+        return aborted;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("propagation delay '%s' and timeout '%s' millis", propagationDelay.toMillis(), timeout.toMillis());
+    }
+
+    private Server capture(Server server) {
+        this.server = server;
+        return server;
+    }
+
+    private void closeConnectors() {
+        Server current = server;
+        if (current == null) {
+            return;
+        }
+        for (Connector connector : current.getConnectors()) {
+            if (connector instanceof NetworkConnector) {
+                try {
+                    ((NetworkConnector) connector).close();
+                } catch (RuntimeException e) {
+                    System.out.printf("Closing connector fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -1,20 +1,60 @@
 package de.jwausle.kubernetes;
 
-import org.jetbrains.annotations.NotNull;
-
-import java.util.Stack;
-import java.util.concurrent.CompletableFuture;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Closed loop heap consumer to hold the java heap usage at a target percentage of {@code -Xmx}. <br/>
+ * The heap used after each garbage collection is reported by the {@link GcTelemetry}. It is split into the bytes retained by
+ * this consumer, released chunks not collected yet and the live baseline of the rest of the application. The controller
+ * retains {@code target - baseline}
+ * bytes in {@code CHUNK_SIZE} chunks, allocates up to {@code MAX_ALLOCATION_RATIO} of the heap and releases
+ * {@code 1 / RELEASE_STEPS} of the excess per step. The next GC frees the released chunks, no {@code System.gc()} is forced.
+ * A chunk stays below half of the smallest G1 region, a humongous chunk would occupy two regions and count twice.
+ * The usage, the convergence error and the time to target are measured from the heap used after GC, so the target
+ * counts as reached with the first GC that confirms it.
+ * The status includes the memory usage, limit and pressure of the container from {@link CgroupTelemetry}.
+ */
 public class HeapConsumer {
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int TOLERANCE_PERCENTAGE = 2;
+    private static final int RELEASE_STEPS = 4;
+    private static final double MAX_ALLOCATION_RATIO = 0.1;
+    private static final long FOLLOW_UP_MILLIS = 100;
+    private static final int INITIAL_PERCENTAGE = 5;
 
     private final AtomicInteger memoryBarrierPercentage = new AtomicInteger(0);
-    private final AtomicInteger memoryUsagePercentage = new AtomicInteger(5);
-    private final CompletableFuture<Void> memoryLoop;
+    // measured heap usage after the last GC
+    private final AtomicInteger memoryUsagePercentage = new AtomicInteger(INITIAL_PERCENTAGE);
+    private final CgroupTelemetry cgroup;
+    private final long maxMemory = Runtime.getRuntime().maxMemory();
+    private final ScheduledExecutorService controller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "heap-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // guarded by 'this'
+    private final Deque<byte[]> chunks = new ArrayDeque<>();
+    private final Deque<WeakReference<byte[]>> releasedChunks = new ArrayDeque<>();
+    private boolean followUpScheduled = false;
+    private long retainedBytes = 0;
+    private long liveBaselineBytes;
+    private volatile long targetSetNanos = System.nanoTime();
+    private volatile long timeToTargetMillis = -1;
 
-    public HeapConsumer() {
-        memoryLoop = startLoopAsync();
-        consume(memoryUsagePercentage.get());
+    public HeapConsumer(CgroupTelemetry cgroup, GcTelemetry gc) {
+        this.cgroup = cgroup;
+        Runtime runtime = Runtime.getRuntime();
+        liveBaselineBytes = runtime.totalMemory() - runtime.freeMemory();
+        memoryUsagePercentage.set((int) (liveBaselineBytes * 100 / maxMemory));
+        Objects.requireNonNull(gc, "'gc' must not be null.").onCollection(this::onGarbageCollection);
+        consume(INITIAL_PERCENTAGE);
     }
 
     /**
@@ -29,44 +69,87 @@ public class HeapConsumer {
             throw new IllegalArgumentException(percentage + " must be smaller than 100. Its a percentage value.");
         }
         memoryBarrierPercentage.set(percentage);
+        targetSetNanos = System.nanoTime();
+        timeToTargetMillis = -1;
+        controller.execute(this::control);
     }
 
-    @NotNull
-    private CompletableFuture<Void> startLoopAsync() {
-        return CompletableFuture.runAsync(() -> {
-            Runtime runtime = Runtime.getRuntime();
-            Stack stack = new Stack();
-            while (true) {
-                int currentPercentageMemoryUsage = (int) (100 - (((double) (runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory()) / runtime.maxMemory()) * 100));
-                memoryUsagePercentage.set(currentPercentageMemoryUsage);
+    /**
+     * @return target minus heap usage after the last GC in [%]
+     */
+    public int convergenceError() {
+        return memoryBarrierPercentage.get() - memoryUsagePercentage.get();
+    }
 
-                if (memoryBarrierPercentage.get() - 2 <= currentPercentageMemoryUsage && currentPercentageMemoryUsage <= memoryBarrierPercentage.get() + 2) {
-                    safeSleep(100);
-                    continue;
-                } else if (memoryBarrierPercentage.get() + 2 < currentPercentageMemoryUsage) {
-                    safeSleep(10);
-                    stack = null;
-                    System.gc();
-                    stack = new Stack();
-                    continue;
-                }
-                byte memoryConsumingArray[] = new byte[104857];
-                stack.add(memoryConsumingArray);
-            }
-        });
+    /**
+     * @return millis from the last {@link #consume(int)} until a GC measured the target or -1 while converging
+     */
+    public long timeToTargetMillis() {
+        return timeToTargetMillis;
     }
 
-    @Override
-    public String toString() {
-        return "'" + memoryUsagePercentage.get() + "'% of maximal '" + memoryBarrierPercentage.get() + "'%";
+    private void onGarbageCollection(long heapUsedAfterGc) {
+        synchronized (this) {
+            releasedChunks.removeIf(chunk -> chunk.get() == null);
+            long releasedBytes = (long) releasedChunks.size() * CHUNK_SIZE;
+            liveBaselineBytes = Math.max(0, heapUsedAfterGc - retainedBytes - releasedBytes);
+        }
+        int usagePercentage = (int) (heapUsedAfterGc * 100 / maxMemory);
+        memoryUsagePercentage.set(usagePercentage);
+        if (Math.abs(memoryBarrierPercentage.get() - usagePercentage) <= TOLERANCE_PERCENTAGE && timeToTargetMillis < 0) {
+            timeToTargetMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - targetSetNanos);
+            System.out.println(">> java heap reached '" + usagePercentage + "'% in '" + timeToTargetMillis + "' millis.");
+        }
+        controller.execute(this::control);
     }
 
-    private static void safeSleep(int millis) {
+    /**
+     * One control step on the controller thread: allocate or incrementally release chunks towards the target.
+     */
+    private synchronized void control() {
+        long targetBytes = maxMemory / 100 * memoryBarrierPercentage.get();
+        long deltaBytes = Math.max(0, targetBytes - liveBaselineBytes) - retainedBytes;
+        long retainedBeforeBytes = retainedBytes;
         try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            System.out.println(">> ignore interruption of java heap consumer.");
-            Thread.currentThread().interrupt();
+            if (deltaBytes >= CHUNK_SIZE) {
+                long allocateBytes = Math.min(deltaBytes, (long) (maxMemory * MAX_ALLOCATION_RATIO));
+                for (long i = 0; i < allocateBytes / CHUNK_SIZE; i++) {
+                    chunks.push(new byte[CHUNK_SIZE]);
+                    retainedBytes += CHUNK_SIZE;
+                }
+            } else if (deltaBytes <= -CHUNK_SIZE) {
+                long releaseChunks = Math.max(1, -deltaBytes / CHUNK_SIZE / RELEASE_STEPS);
+                for (long i = 0; i < releaseChunks && !chunks.isEmpty(); i++) {
+                    releasedChunks.add(new WeakReference<>(chunks.pop()));
+                    retainedBytes -= CHUNK_SIZE;
+                }
+            }
+        } catch (OutOfMemoryError e) {
+            long releaseChunks = Math.max(1, chunks.size() / RELEASE_STEPS);
+            for (long i = 0; i < releaseChunks && !chunks.isEmpty(); i++) {
+                releasedChunks.add(new WeakReference<>(chunks.pop()));
+                retainedBytes -= CHUNK_SIZE;
+            }
+            System.out.println(">> java heap consumer run out of memory and release '" + releaseChunks + "' chunks.");
+        }
+
+        // the estimate steers the steps until the next GC measures the heap
+        int estimatedPercentage = (int) ((liveBaselineBytes + retainedBytes) * 100 / maxMemory);
+        boolean converged = Math.abs(memoryBarrierPercentage.get() - estimatedPercentage) <= TOLERANCE_PERCENTAGE;
+        boolean adjusted = retainedBeforeBytes != retainedBytes;
+        if (!converged && adjusted && !followUpScheduled) {
+            followUpScheduled = true;
+            controller.schedule(this::followUp, FOLLOW_UP_MILLIS, TimeUnit.MILLISECONDS);
         }
     }
+
+    private synchronized void followUp() {
+        followUpScheduled = false;
+        control();
+    }
+
+    @Override
+    public String toString() {
+        return "'" + memoryUsagePercentage.get() + "'% of maximal '" + memoryBarrierPercentage.get() + "'% at " + cgroup.memoryStatus();
+    }
 }
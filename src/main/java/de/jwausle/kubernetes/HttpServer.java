@@ -1,107 +1,397 @@
 package de.jwausle.kubernetes;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
 import com.codahale.metrics.Timer;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Vector;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.dropwizard.DropwizardExports;
 import io.prometheus.client.exporter.common.TextFormat;
+import io.prometheus.client.hotspot.DefaultExports;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import spark.Request;
 import spark.Response;
 import spark.Route;
 import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
 /**
- * Http server on {@code -Dport=8080} to provide this endpoints:
+ * Http server on {@code -Dport=8080} and {@code -Dmode=blocking|async} to provide this endpoints. The cpu cost of
+ * {@code GET /} is set via {@code -Dwork=CPU_MICROS} and {@code -Dparallelism=SLICES}, the reuse of rendered
+ * {@code GET /metrics} via {@code -DmetricsTtl=MILLIS}. The probes are served on {@code -DprobePort=PORT} too, if set.
+ * Concurrent {@code GET /} requests are limited adaptively via {@code -Dlimit=aimd|gradient}, saturation sets readiness
+ * UNREADY via {@code -DlimitShed=true}, {@code aimd} backs off above {@code -DlimitLatency=MILLIS}. Payloads of {@code ?size=BYTES} are served up to {@code -DpayloadMax=BYTES} from a
+ * direct or, via {@code -DpayloadMapped=true}, memory mapped buffer. {@code GET /} calls the comma separated
+ * {@code -Ddownstream=URLS} first, via {@code -DdownstreamMode=parallel|sequence} with {@code -DdownstreamTimeout=MILLIS}
+ * per attempt and a hedged attempt after {@code -DdownstreamHedge=MILLIS}, if set. The cpu throttling, memory usage and
+ * pressure of the container are sampled below {@code -DcgroupRoot=PATH} every {@code -DcgroupInterval=MILLIS}:
  *
  * <li>GET /               - return pod address</li>
+ * <li>GET /?size=BYTES&chunk=BYTES&gzip=BOOL - return a body of BYTES after the simulated request time</li>
+ * <li>GET /payload?size=BYTES&chunk=BYTES&gzip=BOOL - return a body of BYTES immediately</li>
+ * <li>GET /latency        - return the distribution of the simulated request time of {@code GET /}</li>
+ * <li>GET/POST /latency/set?dist=fixed|uniform|lognormal|pareto|bimodal|replay&... - switch the distribution</li>
  * <li>GET /liveness       - return LIVING|DIEING</li>
- * <li>GET /liveness/die   - switch to liveness/DIEING</li>
+ * <li>GET /liveness/die   - switch to liveness/DIEING (optional {@code ?for=SECONDS} or {@code ?flap=SECONDS&jitter=RATIO})</li>
  * <li>GET /liveness/alive - switch to liveness/LIVING</li>
  *
  * <li>GET /readiness                    - return READY|UNREADY</li>
- * <li>GET/POST /readiness/unready [INT] - switch to readiness/UNREADY (optional for INT requests)</li>
+ * <li>GET/POST /readiness/unready [INT] - switch to readiness/UNREADY (optional for INT requests, {@code ?for=SECONDS} or
+ * {@code ?flap=SECONDS&jitter=RATIO})</li>
  * <li>GET /readiness/ready              - switch to readiness/READY</li>
  *
  * <li>GET/POST /memory [0 - 100] - set java memory consumption in [%]</li>
+ * <li>GET/POST /memory/start?rate=MB_PER_SEC&lifetime=short|medium|long&threads=INT - set allocation churn</li>
+ * <li>GET/POST /memory/start?direct=BYTES|PERCENT%&mapped=BYTES|PERCENT% - set off-heap and memory mapped consumption</li>
  * <li>GET/POST /stress [0 - ..]  - set seconds to stress the system</li>
- * <li>GET /stress/start [0 - ..] - set seconds to stress the system</li>
+ * <li>GET /stress/start [0 - ..] - set seconds to stress the system, optional {@code ?cpu=CORES|PERCENT%}</li>
+ * <li>GET /stress/start?io=MB_PER_SEC|iops=INT&block=BYTES&depth=INT&sync=BOOL&read=PERCENT&mapped=BOOL&dir=PATH - set disk stress</li>
+ * <li>GET /stress/start?bandwidth=GB_PER_SEC&stride=BYTES&threads=INT&buffer=BYTES - set memory bandwidth stress</li>
  * <li>GET /stress/stop           - try to stop the system stress</li>
- * <li>GET /kill                  - exit java process</li>
- * <li>GET /metrics               - return tracked metrics</li>
+ * <li>GET /kill                  - drain requests and exit java process, also on SIGTERM</li>
+ * <li>GET /metrics               - return tracked, cgroup, gc and jvm metrics, gzip if accepted</li>
+ * <li>GET /load                  - return the report of the latest load run</li>
+ * <li>GET/POST /load/start?url=URL&rate=PER_SECOND&duration=SECONDS&connections=INT&timeout=MILLIS - start a load run</li>
+ * <li>GET /load/stop             - stop the load run</li>
+ * <p>
+ * With {@code -Dload=URL} the jar runs the {@link LoadGenerator} instead of the server, with the same parameters as
+ * {@code -DloadRate=PER_SECOND}, {@code -DloadDuration=SECONDS}, {@code -DloadConnections=INT} and {@code -DloadTimeout=MILLIS}.
+ * </p>
  */
 public class HttpServer {
     private static final String DEFAULT_PORT = "8080";
+    private static final String DEFAULT_MODE = ExecutionMode.BLOCKING.name();
+    private static final String DEFAULT_WORK = "0";
+    private static final String DEFAULT_PARALLELISM = "1";
+    private static final String DEFAULT_METRICS_TTL = "1000";
+    private static final String DEFAULT_LIMIT = "none";
+    private static final String DEFAULT_LIMIT_SHED = "false";
+    private static final String DEFAULT_LIMIT_LATENCY = "1000";
+    private static final int INITIAL_CONCURRENCY_LIMIT = 50;
+    private static final String DEFAULT_DRAIN_DELAY = "5";
+    private static final String DEFAULT_DRAIN_TIMEOUT = "10";
+    private static final String DEFAULT_PAYLOAD_MAX = "64m";
+    private static final String DEFAULT_PAYLOAD_MAPPED = "false";
+    private static final String DEFAULT_DOWNSTREAM_MODE = Downstream.Mode.PARALLEL.name();
+    private static final String DEFAULT_DOWNSTREAM_TIMEOUT = "2000";
+    private static final String DEFAULT_DOWNSTREAM_HEDGE = "0";
+    private static final String DEFAULT_CGROUP_ROOT = "/sys/fs/cgroup";
+    private static final String DEFAULT_CGROUP_INTERVAL = "1000";
+    private static final long LOAD_REPORT_PERIOD_IN_SECONDS = 5;
+    private static final int PAYLOAD_WRITER_THREADS = 32;
     private static final int HTTP_REQUEST_PROCESSING_RANGE_IN_MILLIS = 1000;
     // endpoints
-    private final HomeEndpoint home = new HomeEndpoint(metricRegistry);
-    private final LivenessProbe liveness = new LivenessProbe(metricRegistry);
-    private final ReadinessProbe readiness = new ReadinessProbe(metricRegistry);
-    private final MemoryEndpoint memory = new MemoryEndpoint();
-    private final StressEndpoint stresser = new StressEndpoint();
+    private final PayloadSource payloads = payloadSource();
+    private final CgroupTelemetry cgroup = cgroupTelemetry();
+    private final Downstream downstream = downstream();
+    private final HomeEndpoint home = new HomeEndpoint(metricRegistry,
+            ExecutionMode.of(setting("mode", "MODE", DEFAULT_MODE)),
+            new CpuWorkload(Long.valueOf(setting("work", "WORK", DEFAULT_WORK)), Integer.valueOf(setting("parallelism", "PARALLELISM", DEFAULT_PARALLELISM))),
+            payloads, downstream);
+    private final PayloadEndpoint payload = new PayloadEndpoint(payloads);
+    private final LoadEndpoint load = new LoadEndpoint();
+    private final LivenessProbe liveness = new LivenessProbe(metricRegistry, probeScheduler);
+    private final ReadinessProbe readiness = new ReadinessProbe(metricRegistry, probeScheduler);
+    private final GcTelemetry gc = new GcTelemetry().register();
+    private final MemoryEndpoint memory = new MemoryEndpoint(metricRegistry, cgroup, gc);
+    private final StressEndpoint stresser = new StressEndpoint(metricRegistry, cgroup);
+    private final Route admittedHome = admissionControl(home, readiness);
     // responses
     private static final int STATUS_OK = 200;
     private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_CONFLICT = 409;
     private static final int STATUS_GONE = 410;
     private static final int STATUS_LOCKED = 423;
     private static final int STATUS_INTERNAL_ERROR = 500;
+    private static final int STATUS_BAD_GATEWAY = 502;
+    private static final int STATUS_SERVICE_UNAVAILABLE = 503;
     private static final String READY = "READY";
     private static final String UNREADY = "UNREADY";
     private static final int AUTO_HEALING_COUNT = 3;
     private static final String ALIVE = "LIVING";
     private static final String DIEING = "DIEING";
+    private static final String OVERLOADED = "OVERLOADED";
+    private static final String SHEDDING = UNREADY + " while shedding load";
     // metrics
-    private final MetricEndpoint metrics = new MetricEndpoint(prometheus);
+    private final RouteLatencies latencies = new RouteLatencies().register();
+    // shutdown
+    private final GracefulShutdown shutdown = new GracefulShutdown(readiness::drain, latencies::inFlight, latencies::completed, downstream::stop,
+            Duration.ofSeconds(Long.valueOf(setting("drainDelay", "DRAIN_DELAY", DEFAULT_DRAIN_DELAY))),
+            Duration.ofSeconds(Long.valueOf(setting("drainTimeout", "DRAIN_TIMEOUT", DEFAULT_DRAIN_TIMEOUT))));
+    private final MetricEndpoint metrics = new MetricEndpoint(new MetricsSnapshot(CollectorRegistry.defaultRegistry,
+            Long.valueOf(setting("metricsTtl", "METRICS_TTL", DEFAULT_METRICS_TTL))));
     private static final MetricRegistry metricRegistry = new MetricRegistry();
+    private static final ScheduledExecutorService probeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "probe-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
     private static final DropwizardExports prometheus = new DropwizardExports(metricRegistry);
     private static final String LIVENESS_GAUGH = "liveness_gaugh";
     private static final String READINESS_GAUGH = "readiness_gaugh";
     private static final String REQUEST_TIMER = "request_timer";
+    private static final String REQUEST_CPU_TIMER = "request_cpu_timer";
+    private static final String HEAP_CONVERGENCE_ERROR_GAUGH = "heap_convergence_error_gaugh";
+    private static final String HEAP_TIME_TO_TARGET_GAUGH = "heap_time_to_target_gaugh";
+    private static final String ALLOCATION_RATE_GAUGH = "allocation_rate_gaugh";
+    private static final String DIRECT_MEMORY_GAUGH = "direct_memory_gaugh";
+    private static final String MAPPED_MEMORY_GAUGH = "mapped_memory_gaugh";
+    private static final String IO_LATENCY_HISTOGRAM = "io_latency_histogram";
+    private static final String IO_THROUGHPUT_GAUGH = "io_throughput_gaugh";
+    private static final String IO_IOPS_GAUGH = "io_iops_gaugh";
+    private static final String MEMORY_BANDWIDTH_GAUGH = "memory_bandwidth_gaugh";
+    private static final String STRESS_PROCESS_COUNT_GAUGH = "stress_process_count_gaugh";
+    private static final String STRESS_PROCESS_CPU_GAUGH = "stress_process_cpu_gaugh";
+    private static final String STRESS_PROCESS_RSS_GAUGH = "stress_process_rss_gaugh";
+    private static final String PROBE_LIVENESS_TIMER = "probe_liveness_timer";
+    private static final String PROBE_READINESS_TIMER = "probe_readiness_timer";
+    private static final long PROBE_LATENCY_WINDOW_IN_SECONDS = 60;
+    private static final String CONCURRENCY_LIMIT_GAUGH = "concurrency_limit_gaugh";
+    private static final String CONCURRENCY_IN_FLIGHT_GAUGH = "concurrency_in_flight_gaugh";
+    private static final String CONCURRENCY_REJECTED_GAUGH = "concurrency_rejected_gaugh";
+    private static final String SHUTDOWN_DRAINED_GAUGH = "shutdown_drained_gaugh";
+    private static final String SHUTDOWN_ABORTED_GAUGH = "shutdown_aborted_gaugh";
+    private static final String PAYLOAD_SENT_METER = "payload_sent_bytes_meter";
+    private static final String PAYLOAD_RATE_GAUGH = "payload_sent_bytes_per_second_gaugh";
+    private static final String DOWNSTREAM_HOP_TIMER = "downstream_hop_timer";
+    private static final String DOWNSTREAM_FAILED_GAUGH = "downstream_failed_gaugh";
+    private static final String DOWNSTREAM_HEDGED_GAUGH = "downstream_hedged_gaugh";
+    private static final String CGROUP_CPU_PERIODS_GAUGH = "cgroup_cpu_periods_gaugh";
+    private static final String CGROUP_CPU_THROTTLED_PERIODS_GAUGH = "cgroup_cpu_throttled_periods_gaugh";
+    private static final String CGROUP_CPU_THROTTLED_SECONDS_GAUGH = "cgroup_cpu_throttled_seconds_gaugh";
+    private static final String CGROUP_CPU_THROTTLED_RATIO_GAUGH = "cgroup_cpu_throttled_ratio_gaugh";
+    private static final String CGROUP_MEMORY_CURRENT_GAUGH = "cgroup_memory_current_bytes_gaugh";
+    private static final String CGROUP_MEMORY_MAX_GAUGH = "cgroup_memory_max_bytes_gaugh";
+    private static final String CGROUP_PRESSURE_GAUGH = "cgroup_%s_pressure_%s_gaugh";
 
     /**
-     * {@code httpServer [-Dport=PORT]} with default port=8080.
+     * {@code httpServer [-Dport=PORT] [-Dmode=MODE] [-Dwork=CPU_MICROS] [-Dparallelism=SLICES] [-DmetricsTtl=MILLIS]
+     * [-DprobePort=PORT] [-Dlimit=ALGORITHM] [-DlimitShed=BOOL] [-DlimitLatency=MILLIS] [-DdrainDelay=SECONDS]
+     * [-DdrainTimeout=SECONDS] [-DpayloadMax=BYTES] [-DpayloadMapped=BOOL] [-Ddownstream=URLS] [-DdownstreamMode=MODE]
+     * [-DdownstreamTimeout=MILLIS] [-DdownstreamHedge=MILLIS] [-DcgroupRoot=PATH] [-DcgroupInterval=MILLIS]} with
+     * default port=8080, mode=blocking, work=0, parallelism=1, metricsTtl=1000, no probe port, limit=none,
+     * limitShed=false, limitLatency=1000, drainDelay=5, drainTimeout=10, payloadMax=64m, payloadMapped=false, no
+     * downstream, downstreamMode=parallel, downstreamTimeout=2000, downstreamHedge=0, cgroupRoot=/sys/fs/cgroup and
+     * cgroupInterval=1000.
      *
-     * @param args -Dport=INT, default=8080
+     * @param args -Dport=INT, default=8080, -Dmode=blocking|async, default=blocking, -Dwork=INT, default=0,
+     *             -Dparallelism=INT, default=1, -DmetricsTtl=INT, default=1000, -DprobePort=INT, default=none,
+     *             -Dlimit=none|aimd|gradient, default=none, -DlimitShed=true|false, default=false,
+     *             -DlimitLatency=INT, default=1000, -DdrainDelay=INT, default=5, -DdrainTimeout=INT, default=10,
+     *             -DpayloadMax=BYTES, default=64m, -DpayloadMapped=true|false, default=false,
+     *             -Ddownstream=URL,URL,..., default=none,
+     *             -DdownstreamMode=parallel|sequence, default=parallel, -DdownstreamTimeout=INT, default=2000,
+     *             -DdownstreamHedge=INT, default=0, -DcgroupRoot=PATH, default=/sys/fs/cgroup and
+     *             -DcgroupInterval=INT, default=1000 or -Dload=URL, -DloadRate=INT, default=100, -DloadDuration=INT,
+     *             default=10, -DloadConnections=INT, default=64 and -DloadTimeout=INT, default=10000 to generate load
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        Optional<LoadGenerator.Target> load = LoadGenerator.Target.parse(HttpServer::loadSetting);
+        if (load.isPresent()) {
+            generateLoad(load.get());
+            return;
+        }
         CollectorRegistry.defaultRegistry.register(prometheus);
+        DefaultExports.initialize();
         HttpServer server = new HttpServer();
         server.startAndWait();
     }
 
-    private static void sleepOneSecond() {
+    /**
+     * Run the {@link LoadGenerator} instead of the server and report every {@code LOAD_REPORT_PERIOD}.
+     */
+    private static void generateLoad(LoadGenerator.Target target) throws Exception {
+        LoadGenerator.Run run = new LoadGenerator().start(target);
+        while (true) {
+            try {
+                run.done().get(LOAD_REPORT_PERIOD_IN_SECONDS, TimeUnit.SECONDS);
+                break;
+            } catch (TimeoutException e) {
+                System.out.print(run.report());
+            }
+        }
+        System.out.print(run.report());
+    }
+
+    /**
+     * Resolve a {@link LoadGenerator.Target} parameter from {@code -Dload=URL} and {@code -Dload[Name]}, like
+     * {@code -DloadRate=PER_SECOND}, or the environment variables {@code LOAD} and {@code LOAD_[NAME]}.
+     */
+    private static Optional<String> loadSetting(String name) {
+        boolean url = "url".equals(name);
+        String property = url ? "load" : "load" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        String env = url ? "LOAD" : "LOAD_" + name.toUpperCase();
+        return Optional.ofNullable(setting(property, env, null));
+    }
+
+    /**
+     * Resolve a startup setting from {@code -D[property]} first, then the environment variable {@code [env]}.
+     */
+    private static String setting(String property, String env, String defaultValue) {
+        return System.getProperty(property, Optional.ofNullable(System.getenv(env)).orElse(defaultValue));
+    }
+
+    /**
+     * Start the {@link ProbeListener} for {@code /liveness} and {@code /readiness} if {@code -DprobePort=PORT} is set.
+     */
+    private void startProbeListener() {
+        String probePort = setting("probePort", "PROBE_PORT", "");
+        if (probePort.trim().isEmpty()) {
+            return;
+        }
         try {
-            Thread.sleep(1000);
-        } catch (Exception e) {
+            new ProbeListener(Integer.valueOf(probePort.trim()))
+                    .route("/liveness", liveness::probe, probeTimer(PROBE_LIVENESS_TIMER))
+                    .route("/readiness", readiness::probe, probeTimer(PROBE_READINESS_TIMER))
+                    .start();
+        } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Put {@link AdmissionControl} in front of {@code home} if {@code -Dlimit=aimd|gradient} is set, shed readiness
+     * while saturated if {@code -DlimitShed=true} is set. {@code aimd} backs off above an average latency of
+     * {@code -DlimitLatency=MILLIS}.
+     */
+    private static Route admissionControl(HomeEndpoint home, ReadinessProbe readiness) {
+        String limit = setting("limit", "LIMIT", DEFAULT_LIMIT);
+        if (DEFAULT_LIMIT.equalsIgnoreCase(limit.trim())) {
+            return home;
+        }
+        long latency = Long.valueOf(setting("limitLatency", "LIMIT_LATENCY", DEFAULT_LIMIT_LATENCY));
+        if (latency <= 0) {
+            throw new IllegalArgumentException(latency + " must be greather than 0. Its a latency in millis.");
+        }
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(ConcurrencyLimiter.Algorithm.of(limit), INITIAL_CONCURRENCY_LIMIT, latency);
+        if (Boolean.valueOf(setting("limitShed", "LIMIT_SHED", DEFAULT_LIMIT_SHED))) {
+            limiter.onSaturation(readiness::shed);
+        }
+        System.out.println(">> set home concurrency limit=" + limiter);
+        return new AdmissionControl(metricRegistry, home, limiter);
+    }
+
+    /**
+     * Create the {@link PayloadSource} of {@code ?size=BYTES} responses up to {@code -DpayloadMax=BYTES}, memory mapped
+     * if {@code -DpayloadMapped=true} is set.
+     */
+    private static PayloadSource payloadSource() {
+        Meter sent = metricRegistry.meter(PAYLOAD_SENT_METER);
+        metricRegistry.gauge(PAYLOAD_RATE_GAUGH, () -> (Gauge<Double>) sent::getOneMinuteRate);
+        PayloadSource payloads = new PayloadSource(NativeMemoryConsumer.parseBytes(setting("payloadMax", "PAYLOAD_MAX", DEFAULT_PAYLOAD_MAX)),
+                Boolean.valueOf(setting("payloadMapped", "PAYLOAD_MAPPED", DEFAULT_PAYLOAD_MAPPED)), sent);
+        System.out.println(">> set payload source=" + payloads);
+        return payloads;
+    }
+
+    /**
+     * Create the {@link Downstream} calls of {@code GET /} to the comma separated {@code -Ddownstream=URLS}, disabled if
+     * not set.
+     */
+    private static Downstream downstream() {
+        Downstream downstream = new Downstream(setting("downstream", "DOWNSTREAM", ""),
+                Downstream.Mode.of(setting("downstreamMode", "DOWNSTREAM_MODE", DEFAULT_DOWNSTREAM_MODE)),
+                Duration.ofMillis(Long.valueOf(setting("downstreamTimeout", "DOWNSTREAM_TIMEOUT", DEFAULT_DOWNSTREAM_TIMEOUT))),
+                Duration.ofMillis(Long.valueOf(setting("downstreamHedge", "DOWNSTREAM_HEDGE", DEFAULT_DOWNSTREAM_HEDGE))),
+                metricRegistry.timer(DOWNSTREAM_HOP_TIMER));
+        if (downstream.isEnabled()) {
+            metricRegistry.gauge(DOWNSTREAM_FAILED_GAUGH, () -> (Gauge<Long>) downstream::failed);
+            metricRegistry.gauge(DOWNSTREAM_HEDGED_GAUGH, () -> (Gauge<Long>) downstream::hedged);
+            System.out.println(">> set home downstream=" + downstream);
+        }
+        return downstream;
+    }
+
+    /**
+     * Create the {@link CgroupTelemetry} of the container below {@code -DcgroupRoot=PATH}, sampled every
+     * {@code -DcgroupInterval=MILLIS}, and register its gauges.
+     */
+    private static CgroupTelemetry cgroupTelemetry() {
+        CgroupTelemetry cgroup = new CgroupTelemetry(Paths.get(setting("cgroupRoot", "CGROUP_ROOT", DEFAULT_CGROUP_ROOT)),
+                Duration.ofMillis(Long.valueOf(setting("cgroupInterval", "CGROUP_INTERVAL", DEFAULT_CGROUP_INTERVAL))));
+        metricRegistry.gauge(CGROUP_CPU_PERIODS_GAUGH, () -> (Gauge<Long>) cgroup::periods);
+        metricRegistry.gauge(CGROUP_CPU_THROTTLED_PERIODS_GAUGH, () -> (Gauge<Long>) cgroup::throttledPeriods);
+        metricRegistry.gauge(CGROUP_CPU_THROTTLED_SECONDS_GAUGH, () -> (Gauge<Double>) cgroup::throttledSeconds);
+        metricRegistry.gauge(CGROUP_CPU_THROTTLED_RATIO_GAUGH, () -> (Gauge<Double>) cgroup::throttledRatio);
+        metricRegistry.gauge(CGROUP_MEMORY_CURRENT_GAUGH, () -> (Gauge<Long>) cgroup::memoryCurrentBytes);
+        metricRegistry.gauge(CGROUP_MEMORY_MAX_GAUGH, () -> (Gauge<Long>) cgroup::memoryMaxBytes);
+        for (CgroupTelemetry.Resource resource : CgroupTelemetry.Resource.values()) {
+            String name = resource.name().toLowerCase();
+            metricRegistry.gauge(String.format(CGROUP_PRESSURE_GAUGH, name, "some"), () -> (Gauge<Double>) () -> cgroup.pressureSome(resource));
+            metricRegistry.gauge(String.format(CGROUP_PRESSURE_GAUGH, name, "full"), () -> (Gauge<Double>) () -> cgroup.pressureFull(resource));
+        }
+        System.out.println(">> set cgroup telemetry=" + cgroup);
+        return cgroup;
+    }
+
+    /**
+     * @return requested payload or empty if the request has no query
+     */
+    private static Optional<PayloadSource.Payload> payload(PayloadSource payloads, Request request) {
+        if (request.raw().getQueryString() == null) {
+            return Optional.empty();
+        }
+        return payloads.parse(name -> Optional.ofNullable(request.queryParams(name)), request.headers("Accept-Encoding"));
+    }
+
+    private static Timer probeTimer(String name) {
+        return metricRegistry.timer(name, () -> new Timer(new SlidingTimeWindowArrayReservoir(PROBE_LATENCY_WINDOW_IN_SECONDS, TimeUnit.SECONDS)));
+    }
+
     /**
      * Start http(s)://localhost:[PORT]/{@code readiness|unready|ready} and {@code liveness|die|alive} and {@code kill}.
      * <p>
      * Set {@code PORT} via {@code -Dport=INT} to overwrite default {@code 8080}
      * </p>.
+     * The latency of every route is recorded by the {@link RouteLatencies} filters.
      */
     void startAndWait() {
-        String port = System.getProperty("port", Optional.ofNullable(System.getenv("PORT")).orElse(DEFAULT_PORT));
+        String port = setting("port", "PORT", DEFAULT_PORT);
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new EmbeddedJettyFactory(shutdown));
+        shutdown.registerShutdownHook();
+        metricRegistry.gauge(SHUTDOWN_DRAINED_GAUGH, () -> (Gauge<Long>) shutdown::drained);
+        metricRegistry.gauge(SHUTDOWN_ABORTED_GAUGH, () -> (Gauge<Long>) shutdown::aborted);
+        new LatencyDistribution.Exports(home::distribution).register();
         Spark.port(Integer.valueOf(port));
+        Spark.before(latencies::before);
+        Spark.afterAfter(latencies::after);
+        startProbeListener();
 
-        Spark.get("/", home);
+        Spark.get("/", admittedHome);
+        Spark.get("/latency", home::latency);
+        Spark.get("/latency/set", home::setLatency);
+        Spark.post("/latency/set", home::setLatency);
+        Spark.get("/payload", payload);
 
         Spark.get("/readiness", readiness);
         Spark.get("/readiness/unready", readiness::unready);
@@ -126,144 +416,325 @@ public class HttpServer {
         Spark.get("/help", (__, ___) -> Formatter.formatResponse(Stream.of(
                 "",
                 "# Endpoints",
-                "GET  /                                      - pod IP (200|500)",
+                "GET  /                                      - pod IP (200|500|503 if -Dlimit=aimd|gradient is exceeded)",
+                "                                              -DlimitLatency=MILLIS average latency above which aimd backs off (default: 1000)",
+                "                                              calls -Ddownstream=URL,URL,... first (default: none), 502 if a hop fails",
+                "                                              -DdownstreamMode=parallel|sequence (default: parallel)",
+                "                                              -DdownstreamTimeout=MILLIS per attempt (default: 2000)",
+                "                                              -DdownstreamHedge=MILLIS until a hedged attempt (default: 0 - off)",
+                "GET  /?size=BYTES                           - body of BYTES (e.g. 64k, 2m) after the request time, up to -DpayloadMax=BYTES (default: 64m)",
+                "      &chunk=BYTES                          - stream chunked in BYTES per flush (default: one piece with Content-Length)",
+                "      &gzip=BOOL                            - gzip on the fly if the client accepts it (default: false)",
+                "GET  /payload?size=BYTES&chunk=BYTES&gzip=BOOL - body of BYTES immediately, mapped file with -DpayloadMapped=true",
+                "GET  /latency                               - show the distribution of the request time of / (default: uniform 0-1000 millis)",
+                "GET  /latency/set?dist=fixed&millis=MILLIS  - set the request time of / to ...",
+                "     ?dist=uniform&min=MILLIS&max=MILLIS    - uniform between min (default: 0) and max",
+                "     ?dist=lognormal&median=MILLIS&sigma=SIGMA - log-normal with median and shape sigma (e.g. 0.5)",
+                "     ?dist=pareto&scale=MILLIS&shape=ALPHA  - long tail above scale, heavier for smaller shape (e.g. 1.5)",
+                "     ?dist=bimodal&fast=MILLIS&slow=MILLIS&fraction=RATIO&jitter=RATIO - slow for fraction of requests, +/- jitter (default: 0)",
+                "     ?dist=replay&histogram=LE:COUNT,...    - replay a recorded histogram of upper bounds in millis (last may be +Inf) and cumulative counts",
                 "",
                 "GET  /liveness                              - liveness probe (200|410)",
                 "GET  /liveness/die                          - set pod dieing",
+                "     /liveness/die?for=SECONDS              - set pod dieing for SECONDS",
+                "     /liveness/die?flap=SECONDS&jitter=RATIO - toggle dieing and alive every SECONDS/2 +/- RATIO (default: 0)",
                 "GET  /liveness/alive                        - set pod alive",
                 "",
                 "GET  /readiness                             - readiness probe (200|423)",
-                "GET  /readiness/unready [REQUEST_COUNT_INT] - set pod unready for REQUEST_COUNT_INT (default: 3)",
+                "GET  /readiness/unready [REQUEST_COUNT_INT] - set pod unready for REQUEST_COUNT_INT (default: 3, 0: ready on the next probe)",
+                "     /readiness/unready?for=SECONDS         - set pod unready for SECONDS",
+                "     /readiness/unready?flap=SECONDS&jitter=RATIO - toggle unready and ready every SECONDS/2 +/- RATIO (default: 0)",
                 "GET  /readiness/ready                       - set pod ready again",
                 "POST /readiness/unready [REQUEST_COUNT_INT] - set pod unready for REQUEST_COUNT_INT (default: 3)",
                 "",
-                "GET  /stress                                - show stress state",
+                "GET  :PROBE_PORT/liveness|readiness         - both probes on the dedicated -DprobePort=PORT listener (default: off)",
+                "",
+                "GET  /stress                                - show stress state and the cgroup cpu throttling and pressure",
                 "GET  /stress/start [PERIOD_IN_SEC]          - set system under stress for PERIOD_IN_SEC (default: forever)",
                 "GET  /stress/stop                           - stop system stress",
                 "POST /stress/start [PERIOD_IN_SEC]          - set system under stress for PERIOD_IN_SEC (default: forever)",
+                "     /stress/start?cpu=CORES|PERCENT%       - hold CORES (e.g. 1.5) or PERCENT% of the cpu quota (default: 100%)",
+                "     /stress/start?io=MB_PER_SEC|iops=INT   - hold disk throughput in MB/s or operations/s instead of 'stress --io --hdd'",
+                "                  &block=BYTES&depth=INT    - block size (default: 4k) and parallel operations (default: 1)",
+                "                  &sync=BOOL&read=PERCENT   - force each write (default: false) and share of reads (default: 0)",
+                "                  &mapped=BOOL              - read through a memory mapping of the file (default: false)",
+                "                  &dir=PATH                 - directory for the stress files (default: java.io.tmpdir)",
+                "     /stress/start?bandwidth=GB_PER_SEC     - hold memory bandwidth instead of 'stress --vm' (0: unthrottled)",
+                "                  &stride=BYTES&threads=INT - access stride (default: 64) and worker threads (default: 1)",
+                "                  &buffer=BYTES             - off-heap buffer per worker (default: 64m)",
                 "",
-                "GET  /memory                                - show stress state",
+                "GET  /memory                                - show stress state, gc pauses and rates and the cgroup memory usage, limit and pressure",
                 "GET  /memory/start [HEAP_USE_IN_PERCENT]    - set java HEAP_USE_IN_PERCENT (mandatory)",
                 "GET  /memory/stop                           - set java HEAP_USE_IN_PERCENT = 5%",
                 "POST /memory/start [HEAP_USE_IN_PERCENT]    - set java HEAP_USE_IN_PERCENT (mandatory)",
+                "     /memory/start?rate=MB_PER_SEC          - allocate MB_PER_SEC garbage (0 to stop)",
+                "                  &lifetime=short|medium|long - keep objects 0s, 2s or 60s (default: short)",
+                "                  &threads=INT              - spread the allocation over INT threads (default: 1)",
+                "     /memory/start?direct=BYTES|PERCENT%25  - hold BYTES (e.g. 256m) or PERCENT% of the memory limit in direct buffers",
+                "                                              capped by -XX:MaxDirectMemorySize (default: -Xmx)",
+                "     /memory/start?mapped=BYTES|PERCENT%25  - hold BYTES (e.g. 1g) or PERCENT% of the memory limit in page cache",
+                "",
+                "GET  /metrics                               - prometheus metrics, cached for -DmetricsTtl=MILLIS (default: 1000)",
+                "                                              cgroup_* sampled below -DcgroupRoot=PATH (default: /sys/fs/cgroup)",
+                "                                              every -DcgroupInterval=MILLIS (default: 1000)",
+                "                                              jvm_gc_pause_seconds{gc,cause} and allocation and promotion rates",
+                "",
+                "GET  /load                                  - show the report of the latest load run",
+                "GET  /load/start?url=URL                    - send open-loop load to URL, latency is corrected for coordinated omission (409 if running)",
+                "                &rate=PER_SECOND&duration=SECONDS - request rate (default: 100, max: 1000000) and duration (default: 10)",
+                "                &connections=INT&timeout=MILLIS - max connections (default: 64) and request timeout (default: 10000)",
+                "GET  /load/stop                             - stop the load run",
+                "     java -Dload=URL [-DloadRate=..] [-DloadDuration=..] [-DloadConnections=..] [-DloadTimeout=..] -jar ...",
+                "                                            - run the load generator instead of the server",
                 "",
                 "GET  /help                                  - show this help",
                 "",
-                "GET  /kill                                  - kill java process"
+                "GET  /kill                                  - drain and kill java process, also on SIGTERM",
+                "                                              unready, wait -DdrainDelay=SECONDS (default: 5), stop accepting and",
+                "                                              wait for in-flight requests up to -DdrainTimeout=SECONDS (default: 10)"
         ).collect(Collectors.joining("\n"))));
 
         Spark.get("/metrics", metrics);
 
+        Spark.get("/load", load);
+        Spark.get("/load/start", load::start);
+        Spark.post("/load/start", load::start);
+        Spark.get("/load/stop", load::stop);
+
         Spark.get("/kill", (__, ___) -> {
-            CompletableFuture.runAsync(HttpServer::sleepOneSecond).thenRun(() -> System.exit(-1));
-            return Formatter.formatResponse("shutting down ...");
+            CompletableFuture.runAsync(shutdown::drain).thenRun(() -> System.exit(-1));
+            return Formatter.formatResponse("shutting down with " + shutdown + " ...");
         });
     }
 
     /**
      * Liveness endpoint {@code /liveness} to proof container availability. Return either {@code 200 ALIVE} or {@code 410 DIEING}.
      */
-    private static class LivenessProbe implements Route {
-        private boolean isAlive = true;
-        private int index = 1;
+    static class LivenessProbe implements Route {
+        private final ProbeState state;
+        private volatile ProbeListener.Answer aliveAnswer;
 
-        public LivenessProbe(MetricRegistry metricRegistry) {
-            metricRegistry.gauge(LIVENESS_GAUGH, () -> (Gauge<Integer>) () -> isAlive ? 1 : 0);
+        public LivenessProbe(MetricRegistry metricRegistry, ScheduledExecutorService scheduler) {
+            this.state = new ProbeState(scheduler);
+            metricRegistry.gauge(LIVENESS_GAUGH, () -> (Gauge<Integer>) () -> state.get().isUp() ? 1 : 0);
         }
 
         @Override
         public Object handle(Request request, Response response) throws Exception {
-            if (isAlive) {
-                return Formatter.formatResponse(ALIVE);
-            }
-            response.status(STATUS_GONE);
-            return Formatter.formatResponse(DIEING + " - " + index++, STATUS_GONE);
+            ProbeListener.Answer answer = probe();
+            response.status(answer.status());
+            return answer.body();
         }
 
-        public Object swap(Request request, Response response) {
-            isAlive = !isAlive;
-            if (isAlive) {
-                index = 1;
+        public ProbeListener.Answer probe() {
+            ProbeState.State current = state.probe();
+            if (current.isUp()) {
+                aliveAnswer = ProbeListener.Answer.reuse(aliveAnswer, STATUS_OK, Formatter.cachedResponse(ALIVE, STATUS_OK));
+                return aliveAnswer;
             }
-            return Formatter.formatResponse("switched to " + (isAlive ? ALIVE : DIEING));
-
+            return new ProbeListener.Answer(STATUS_GONE, Formatter.encodeResponse(DIEING + " - " + current.index(), STATUS_GONE));
         }
 
         public Object alive(Request request, Response response) {
-            if (!isAlive) {
-                return swap(request, response);
+            if (state.get().isUp()) {
+                return Formatter.formatResponse("already " + ALIVE);
             }
-            return Formatter.formatResponse("already " + ALIVE);
+            state.up();
+            return Formatter.formatResponse("switched to " + ALIVE);
         }
 
+        /**
+         * Switch to {@code DIEING} forever, for {@code ?for=SECONDS} or flapping with {@code ?flap=SECONDS&jitter=RATIO}.
+         */
         public Object die(Request request, Response response) {
-            if (isAlive) {
-                return swap(request, response);
+            Optional<Object> scheduled = schedule(state, DIEING, request, response);
+            if (scheduled.isPresent()) {
+                return scheduled.get();
+            } else if (state.downIfUp(ProbeState.NEVER) == null) {
+                return Formatter.formatResponse("already " + DIEING);
             }
-            return Formatter.formatResponse("already " + DIEING);
+            return Formatter.formatResponse("switched to " + DIEING);
         }
     }
 
     /**
-     * Readyness endpoint {@code /readiness} to check service availability. Return either {@code 200 READY} or {@code 410 UNREADY}.
+     * Readyness endpoint {@code /readiness} to check service availability. Return either {@code 200 READY} or {@code 423 UNREADY}.
      */
-    private static class ReadinessProbe implements Route {
-        private final Gauge gaugh;
-        private boolean isReady = true;
-        private int index = 0;
-        private int healingCout = AUTO_HEALING_COUNT;
+    static class ReadinessProbe implements Route {
+        private final ProbeState state;
+        private volatile ProbeListener.Answer readyAnswer;
+        private volatile ProbeListener.Answer sheddingAnswer;
+        private volatile boolean isShedding = false;
 
-        public ReadinessProbe(MetricRegistry metricRegistry) {
-            this.gaugh = metricRegistry.gauge(READINESS_GAUGH, () -> (Gauge<Integer>) () -> isReady ? 1 : 0);
+        public ReadinessProbe(MetricRegistry metricRegistry, ScheduledExecutorService scheduler) {
+            this.state = new ProbeState(scheduler);
+            metricRegistry.gauge(READINESS_GAUGH, () -> (Gauge<Integer>) () -> state.get().isUp() && !isShedding ? 1 : 0);
         }
 
         @Override
         public Object handle(Request request, Response response) throws Exception {
-            gaugh.getValue();
+            ProbeListener.Answer answer = probe();
+            response.status(answer.status());
+            return answer.body();
+        }
+
+        public ProbeListener.Answer probe() {
             int status = STATUS_LOCKED;
 
-            if (isReady) {
-                return Formatter.formatResponse(READY);
-            } else if (index == healingCout) {
-                index = 0;
-                return swap(request, response);
-            } else if (index < healingCout) {
-                index++;
+            if (isShedding) {
+                sheddingAnswer = ProbeListener.Answer.reuse(sheddingAnswer, status, Formatter.cachedResponse(SHEDDING, status));
+                return sheddingAnswer;
+            }
+            ProbeState.State previous = state.get();
+            ProbeState.State current = state.probe();
+            if (current.isUp() && !previous.isUp()) {
+                return new ProbeListener.Answer(STATUS_OK, Formatter.encodeResponse("switched to " + READY, STATUS_OK));
+            } else if (current.isUp()) {
+                readyAnswer = ProbeListener.Answer.reuse(readyAnswer, STATUS_OK, Formatter.cachedResponse(READY, STATUS_OK));
+                return readyAnswer;
             }
-            String body = String.format("%s since %s requests - %s requests until switch back to %s", UNREADY, index, healingCout - index, READY);
-            response.status(status);
-            return Formatter.formatResponse(body, status);
+            String body = current.healingCount() != ProbeState.NEVER ?
+                    String.format("%s since %s requests - %s requests until switch back to %s", UNREADY, current.index(), current.healingCount() - current.index(), READY) :
+                    String.format("%s since %s requests - %s", UNREADY, current.index(), current);
+            return new ProbeListener.Answer(status, Formatter.encodeResponse(body, status));
         }
 
-        public Object swap(Request request, Response response) {
-            isReady = !isReady;
-            if (isReady) {
-                index = 0;
-            } else {
-                try {
-                    healingCout = Integer.valueOf(request.body());
-                    System.out.println(">> set healingCount=" + healingCout);
-                } catch (Exception e) {
-                    System.out.printf("Readiness swapping fail with %s because - %s\n",e.getClass().getSimpleName(), e.getMessage());
-                    healingCout = AUTO_HEALING_COUNT;
-                    System.out.println(">> set default healingCount=" + healingCout);
-                }
-            }
-            return Formatter.formatResponse("switched to " + (isReady ? READY : UNREADY));
+        /**
+         * Switch to {@code UNREADY} without healing to drain the pod.
+         */
+        public void drain() {
+            state.down(ProbeState.NEVER);
+            System.out.println(">> set readiness unready to drain");
+        }
+
+        /**
+         * Report {@code UNREADY} while shedding load independent of the switched state.
+         */
+        public void shed(boolean shedding) {
+            isShedding = shedding;
+            System.out.println(">> set readiness shedding=" + shedding);
         }
 
+        /**
+         * Switch to {@code UNREADY} for {@code [INT]} requests, for {@code ?for=SECONDS} or flapping with
+         * {@code ?flap=SECONDS&jitter=RATIO}.
+         */
         public Object unready(Request request, Response response) {
-            if (isReady) {
-                return swap(request, response);
+            Optional<Object> scheduled = schedule(state, UNREADY, request, response);
+            if (scheduled.isPresent()) {
+                return scheduled.get();
+            }
+            int healingCount;
+            try {
+                healingCount = Integer.valueOf(request.body());
+            } catch (Exception e) {
+                System.out.printf("Readiness swapping fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+                healingCount = AUTO_HEALING_COUNT;
+            }
+            try {
+                if (healingCount < 0) {
+                    throw new IllegalArgumentException(healingCount + " must be greather or equal than 0. Its a request count.");
+                } else if (state.downIfUp(healingCount) == null) {
+                    return Formatter.formatResponse("already " + UNREADY, STATUS_GONE);
+                }
+                System.out.println(">> set healingCount=" + healingCount);
+                return Formatter.formatResponse("switched to " + UNREADY);
+            } catch (IllegalArgumentException e) {
+                String responseBody = String.format("Readiness swapping [%s] fail with %s because - %s", request.body(), e.getClass().getSimpleName(), e.getMessage());
+                System.out.println(">>  " + responseBody);
+                response.status(STATUS_BAD_REQUEST);
+                return Formatter.formatResponse(responseBody, STATUS_BAD_REQUEST);
             }
-            return Formatter.formatResponse("already " + UNREADY, STATUS_GONE);
         }
 
         public Object ready(Request request, Response response) {
-            if (!isReady) {
-                return swap(request, response);
+            if (state.get().isUp()) {
+                return Formatter.formatResponse("already " + READY);
             }
-            return Formatter.formatResponse("already " + READY);
+            state.up();
+            return Formatter.formatResponse("switched to " + READY);
+        }
+    }
+
+    /**
+     * Apply a time-based schedule {@code ?for=SECONDS} or {@code ?flap=SECONDS&jitter=RATIO} to the probe state.
+     *
+     * @return response body or empty if no schedule is requested
+     */
+    private static Optional<Object> schedule(ProbeState state, String down, Request request, Response response) {
+        Optional<String> period = Optional.ofNullable(request.queryParams("for"));
+        Optional<String> flap = Optional.ofNullable(request.queryParams("flap"));
+        try {
+            ProbeState.State scheduled;
+            if (period.isPresent()) {
+                scheduled = state.downFor(Duration.ofMillis((long) (Double.valueOf(period.get()) * 1000)));
+            } else if (flap.isPresent()) {
+                double jitter = Double.valueOf(Optional.ofNullable(request.queryParams("jitter")).orElse("0"));
+                scheduled = state.flap(Duration.ofMillis((long) (Double.valueOf(flap.get()) * 1000)), jitter);
+            } else {
+                return Optional.empty();
+            }
+            System.out.println(">> set probe " + scheduled);
+            return Optional.of(Formatter.formatResponse("switched to " + down + " " + scheduled));
+        } catch (RuntimeException e) {
+            String responseBody = String.format("Probe scheduling [%s] fail with %s because - %s", request.queryString(), e.getClass().getSimpleName(), e.getMessage());
+            System.out.println(">>  " + responseBody);
+            response.status(STATUS_BAD_REQUEST);
+            return Optional.of(Formatter.formatResponse(responseBody, STATUS_BAD_REQUEST));
+        }
+    }
+
+    /**
+     * Admission control in front of {@link HomeEndpoint}. Requests beyond the limit of the {@link ConcurrencyLimiter} are
+     * rejected with {@code 503 OVERLOADED} before any work is done, suspended requests are released on completion.
+     */
+    private static class AdmissionControl implements Route {
+        private final Route delegate;
+        private final ConcurrencyLimiter limiter;
+
+        public AdmissionControl(MetricRegistry registry, Route delegate, ConcurrencyLimiter limiter) {
+            this.delegate = Objects.requireNonNull(delegate, "'delegate' must not be null.");
+            this.limiter = Objects.requireNonNull(limiter, "'limiter' must not be null.");
+            registry.gauge(CONCURRENCY_LIMIT_GAUGH, () -> (Gauge<Integer>) limiter::limit);
+            registry.gauge(CONCURRENCY_IN_FLIGHT_GAUGH, () -> (Gauge<Integer>) limiter::inFlight);
+            registry.gauge(CONCURRENCY_REJECTED_GAUGH, () -> (Gauge<Long>) limiter::rejected);
+        }
+
+        @Override
+        public Object handle(Request request, Response response) throws Exception {
+            if (!limiter.tryAcquire()) {
+                response.status(STATUS_SERVICE_UNAVAILABLE);
+                response.header("Retry-After", "1");
+                return Formatter.cachedResponse(OVERLOADED, STATUS_SERVICE_UNAVAILABLE);
+            }
+            long start = System.nanoTime();
+            boolean suspended = false;
+            try {
+                Object body = delegate.handle(request, response);
+                HttpServletRequest raw = request.raw();
+                if (raw.isAsyncStarted()) {
+                    raw.getAsyncContext().addListener(new CompletionListener(() -> limiter.release(System.nanoTime() - start)));
+                    suspended = true;
+                }
+                return body;
+            } finally {
+                if (!suspended) {
+                    limiter.release(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Execution mode of {@link HomeEndpoint} selected on startup via {@code -Dmode=MODE} or env {@code MODE}.
+     * <li>BLOCKING - sleep the simulated request time on the jetty worker thread</li>
+     * <li>ASYNC    - suspend the request and complete it from a timer, the jetty worker thread is released immediately</li>
+     */
+    enum ExecutionMode {
+        BLOCKING, ASYNC;
+
+        static ExecutionMode of(String mode) {
+            return ExecutionMode.valueOf(mode.trim().toUpperCase());
         }
     }
 
@@ -272,44 +743,286 @@ public class HttpServer {
      */
     private static class HomeEndpoint implements Route {
         private final Timer timer;
+        private final Timer cpuTimer;
+        private final ExecutionMode mode;
+        private final CpuWorkload workload;
+        private final ScheduledExecutorService completer;
+        private final PayloadSource payloads;
+        private final ExecutorService payloadWriter;
+        private final Downstream downstream;
+        private volatile LatencyDistribution distribution = LatencyDistribution.uniform(0, HTTP_REQUEST_PROCESSING_RANGE_IN_MILLIS);
 
-        public HomeEndpoint(MetricRegistry registry) {
-            timer = registry.timer(REQUEST_TIMER);
+        public HomeEndpoint(MetricRegistry registry, ExecutionMode mode, CpuWorkload workload, PayloadSource payloads, Downstream downstream) {
+            this.timer = registry.timer(REQUEST_TIMER);
+            this.cpuTimer = registry.timer(REQUEST_CPU_TIMER);
+            this.mode = Objects.requireNonNull(mode, "'mode' must not be null.");
+            this.workload = Objects.requireNonNull(workload, "'workload' must not be null.");
+            this.payloads = Objects.requireNonNull(payloads, "'payloads' must not be null.");
+            this.downstream = Objects.requireNonNull(downstream, "'downstream' must not be null.");
+            this.completer = mode == ExecutionMode.ASYNC ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "home-completer");
+                thread.setDaemon(true);
+                return thread;
+            }) : null;
+            this.payloadWriter = mode == ExecutionMode.ASYNC ? Executors.newFixedThreadPool(PAYLOAD_WRITER_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "home-payload-writer");
+                thread.setDaemon(true);
+                return thread;
+            }) : null;
+            System.out.println(">> set home execution mode=" + mode + " and cpu workload=" + workload);
+        }
+
+        public LatencyDistribution distribution() {
+            return distribution;
+        }
+
+        /**
+         * Show the distribution of the simulated request time.
+         */
+        public Object latency(Request request, Response response) {
+            return Formatter.formatResponse("request time distribution is " + distribution);
+        }
+
+        /**
+         * Switch the distribution of the simulated request time, see {@link LatencyDistribution} for the parameters.
+         */
+        public Object setLatency(Request request, Response response) {
+            String body;
+            try {
+                distribution = LatencyDistribution.parse(name -> Optional.ofNullable(request.queryParams(name)))
+                        .orElseThrow(() -> new IllegalArgumentException("'dist' is mandatory."));
+                body = "set request time distribution to " + distribution;
+                System.out.println(">> " + body);
+            } catch (Exception e) {
+                body = String.format("%s occur because - %s", e.getClass().getSimpleName(), e.getMessage());
+                response.status(STATUS_BAD_REQUEST);
+                return Formatter.formatResponse(body, STATUS_BAD_REQUEST);
+            }
+            return Formatter.formatResponse(body);
         }
 
         @Override
         public Object handle(Request request, Response response) throws Exception {
-            String body = "";
+            Optional<PayloadSource.Payload> payload;
+            try {
+                payload = payload(payloads, request);
+            } catch (IllegalArgumentException e) {
+                response.status(STATUS_BAD_REQUEST);
+                return Formatter.encodeResponse(String.format("%s occur because - %s", e.getClass().getSimpleName(), e.getMessage()), STATUS_BAD_REQUEST);
+            }
+            if (mode == ExecutionMode.ASYNC) {
+                return handleAsync(request, response, payload);
+            }
+            byte[] body;
 
             try (Timer.Context context = timer.time()) {
-                long millisToSleep = ThreadLocalRandom.current().nextLong(HTTP_REQUEST_PROCESSING_RANGE_IN_MILLIS);
+                String cpuTime = work();
+                Downstream.Call call = downstream.isEnabled() ? downstream.call().join() : null;
+                long millisToSleep = distribution.nextMillis();
                 Thread.sleep(millisToSleep);
-                body = Formatter.formatResponse("request time was '" + millisToSleep + "' millis");
-                response.body(body);
+                if (call != null && !call.isSuccess()) {
+                    response.status(STATUS_BAD_GATEWAY);
+                    return Formatter.encodeResponse("request time was '" + millisToSleep + "' millis" + cpuTime + " and " + call, STATUS_BAD_GATEWAY);
+                }
+                if (payload.isPresent()) {
+                    payloads.prepare(payload.get(), response.raw());
+                    payloads.send(payload.get(), response.raw());
+                    return "";
+                }
+                body = Formatter.encodeResponse("request time was '" + millisToSleep + "' millis" + cpuTime + (call != null ? " and " + call : ""), STATUS_OK);
             } catch (Exception e) {
                 response.status(STATUS_INTERNAL_ERROR);
-                body = Formatter.formatResponse(e.getClass().getSimpleName() + " - " + e.getMessage(), STATUS_INTERNAL_ERROR);
+                body = Formatter.encodeResponse(e.getClass().getSimpleName() + " - " + e.getMessage(), STATUS_INTERNAL_ERROR);
             }
             return body;
         }
+
+        /**
+         * Suspend the request and answer it after the simulated request time. Spark serializes the route result only
+         * for uncommitted responses, so the response header is committed here and the body is written on completion.
+         * A payload body is written by one of the {@code PAYLOAD_WRITER_THREADS} payload writers to keep the completer
+         * free, further payloads queue until a writer is free. The simulated request time starts after the downstream
+         * call, failed downstream hops are only reported in the body as the status is committed. Whoever finishes first,
+         * the completer or the async timeout, stops the timer and completes the request. A timed out request is never
+         * written by the completer, jetty may have recycled its response for the next request of the connection.
+         */
+        private Object handleAsync(Request request, Response response, Optional<PayloadSource.Payload> payload) throws Exception {
+            Timer.Context context = timer.time();
+            String cpuTime = work();
+            long millisToSleep = distribution.nextMillis();
+            HttpServletResponse raw = response.raw();
+            AsyncContext async = request.raw().startAsync();
+            AtomicBoolean finished = new AtomicBoolean(false);
+            async.setTimeout(millisToSleep + downstream.maxDuration().toMillis() + HTTP_REQUEST_PROCESSING_RANGE_IN_MILLIS * 10);
+            async.addListener(new AsyncListener() {
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    if (finished.compareAndSet(false, true)) {
+                        System.out.printf("Async request completion fail with %s because - %s\n", TimeoutException.class.getSimpleName(), "timeout after '" + event.getAsyncContext().getTimeout() + "' millis");
+                        context.stop();
+                        async.complete();
+                    }
+                }
+
+                @Override
+                public void onComplete(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+            raw.setStatus(STATUS_OK);
+            raw.setContentType("text/html; charset=utf-8");
+            if (payload.isPresent()) {
+                payloads.prepare(payload.get(), raw);
+            }
+            raw.flushBuffer();
+            CompletableFuture<Downstream.Call> calls = downstream.isEnabled() ? downstream.call() : CompletableFuture.completedFuture(null);
+            calls.thenAccept(call -> completer.schedule(() -> {
+                if (!finished.compareAndSet(false, true)) {
+                    return;
+                }
+                if (payload.isPresent()) {
+                    payloadWriter.execute(() -> {
+                        try {
+                            payloads.send(payload.get(), raw);
+                        } catch (Exception e) {
+                            System.out.printf("Async payload completion fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+                        } finally {
+                            context.stop();
+                            async.complete();
+                        }
+                    });
+                    return;
+                }
+                try {
+                    raw.getOutputStream().write(Formatter.encodeResponse("request time was '" + millisToSleep + "' millis" + cpuTime + (call != null ? " and " + call : ""), STATUS_OK));
+                } catch (Exception e) {
+                    System.out.printf("Async request completion fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+                } finally {
+                    context.stop();
+                    async.complete();
+                }
+            }, millisToSleep, TimeUnit.MILLISECONDS));
+            return "";
+        }
+
+        /**
+         * Burn the configured cpu workload and track the consumed cpu time.
+         *
+         * @return response suffix with the consumed cpu time or empty if the workload is disabled
+         */
+        private String work() {
+            if (!workload.isEnabled()) {
+                return "";
+            }
+            long cpuNanos = workload.burn();
+            cpuTimer.update(cpuNanos, TimeUnit.NANOSECONDS);
+            return " with '" + TimeUnit.NANOSECONDS.toMicros(cpuNanos) + "' cpu micros";
+        }
+    }
+
+    /**
+     * Load endpoint {@code /load} to drive a target url by the {@link LoadGenerator} and show its report.
+     */
+    private static class LoadEndpoint implements Route {
+        private final LoadGenerator generator = new LoadGenerator();
+
+        @Override
+        public Object handle(Request request, Response response) throws Exception {
+            return Formatter.formatResponse(generator.current()
+                    .map(LoadGenerator.Run::report)
+                    .orElse("No load started. Use GET /load/start?url=URL&rate=PER_SECOND&duration=SECONDS to start it."));
+        }
+
+        public Object start(Request request, Response response) {
+            String body;
+            try {
+                LoadGenerator.Target target = LoadGenerator.Target.parse(name -> Optional.ofNullable(request.queryParams(name)))
+                        .orElseThrow(() -> new IllegalArgumentException("'url' is mandatory."));
+                body = "start load " + target;
+                generator.start(target);
+            } catch (IllegalArgumentException e) {
+                body = String.format("%s occur because - %s", e.getClass().getSimpleName(), e.getMessage());
+                response.status(STATUS_BAD_REQUEST);
+                return Formatter.formatResponse(body, STATUS_BAD_REQUEST);
+            } catch (IllegalStateException e) {
+                body = String.format("%s occur because - %s", e.getClass().getSimpleName(), e.getMessage());
+                response.status(STATUS_CONFLICT);
+                return Formatter.formatResponse(body, STATUS_CONFLICT);
+            }
+            return Formatter.formatResponse(body);
+        }
+
+        public Object stop(Request request, Response response) {
+            Optional<LoadGenerator.Run> run = generator.current().filter(current -> !current.isDone());
+            run.ifPresent(LoadGenerator.Run::stop);
+            return Formatter.formatResponse(run.isPresent() ? "stop load" : "No load is running.");
+        }
     }
 
     /**
-     * Wrapper surround the linux {@code stress [OPTION [ARG]]} command. <br/> Multiple calls increase the stress level like this.
-     * <li>First call run - {@code stress --cpu 1 --io 1 --vm 1 --hdd 1 --timeout [SECONDS]}</li>
-     * <li>Second call run - {@code stress --cpu 2 --io 2 --vm 2 --hdd 2 --timeout [SECONDS]}</li>
-     * <li>Second call run - {@code stress --cpu 3 --io 3 --vm 3 --hdd 3 --timeout [SECONDS]}</li>
+     * Payload endpoint {@code /payload?size=BYTES&chunk=BYTES&gzip=BOOL} to return a body of the requested size
+     * immediately, see {@link PayloadSource}.
+     */
+    private static class PayloadEndpoint implements Route {
+        private final PayloadSource payloads;
+
+        PayloadEndpoint(PayloadSource payloads) {
+            this.payloads = Objects.requireNonNull(payloads, "'payloads' must not be null.");
+        }
+
+        @Override
+        public Object handle(Request request, Response response) throws Exception {
+            Optional<PayloadSource.Payload> payload;
+            try {
+                payload = payload(payloads, request);
+            } catch (IllegalArgumentException e) {
+                response.status(STATUS_BAD_REQUEST);
+                return Formatter.formatResponse(String.format("%s occur because - %s", e.getClass().getSimpleName(), e.getMessage()), STATUS_BAD_REQUEST);
+            }
+            if (!payload.isPresent()) {
+                response.status(STATUS_BAD_REQUEST);
+                return Formatter.formatResponse("'size' is mandatory. Use GET /payload?size=BYTES to get a body of BYTES.", STATUS_BAD_REQUEST);
+            }
+            payloads.prepare(payload.get(), response.raw());
+            payloads.send(payload.get(), response.raw());
+            return "";
+        }
+    }
+
+    /**
+     * Wrapper surround the in-process {@link CpuStresser} and the linux {@code stress [OPTION [ARG]]} command. <br/>
+     * The cpu load is hold at {@code ?cpu=CORES|PERCENT%}. Multiple calls increase the stress level of the command like this.
+     * <li>First call run - {@code stress --io 1 --vm 1 --hdd 1 --timeout [SECONDS]}</li>
+     * <li>Second call run - {@code stress --io 2 --vm 2 --hdd 2 --timeout [SECONDS]}</li>
+     * <li>Second call run - {@code stress --io 3 --vm 3 --hdd 3 --timeout [SECONDS]}</li>
      *
      * @see {@link http://linux.die.net/man/1/stress}
      */
     private static class StressEndpoint implements Route {
-        private final SystemStresser stresser = new SystemStresser();
-        private boolean underStress = false;
+        private final SystemStresser stresser;
+
+        StressEndpoint(MetricRegistry metricRegistry, CgroupTelemetry cgroup) {
+            this.stresser = new SystemStresser(cgroup);
+            metricRegistry.register(IO_LATENCY_HISTOGRAM, stresser.io().latency());
+            metricRegistry.gauge(IO_THROUGHPUT_GAUGH, () -> (Gauge<Double>) stresser.io()::achievedMbPerSecond);
+            metricRegistry.gauge(IO_IOPS_GAUGH, () -> (Gauge<Double>) stresser.io()::achievedIops);
+            metricRegistry.gauge(MEMORY_BANDWIDTH_GAUGH, () -> (Gauge<Double>) stresser.bandwidth()::achievedGbPerSecond);
+            metricRegistry.gauge(STRESS_PROCESS_COUNT_GAUGH, () -> (Gauge<Integer>) stresser.processes()::count);
+            metricRegistry.gauge(STRESS_PROCESS_CPU_GAUGH, () -> (Gauge<Double>) stresser.processes()::cpuCores);
+            metricRegistry.gauge(STRESS_PROCESS_RSS_GAUGH, () -> (Gauge<Long>) stresser.processes()::rssBytes);
+        }
 
         @Override
         public Object handle(Request request, Response response) throws Exception {
             String body = "System is not under stress. Use GET/POST /stress/start to stress the system.";
-            if (underStress) {
+            if (stresser.isStressing()) {
                 body = "System is under stress with - " + stresser.toString();
             }
             return Formatter.formatResponse(body);
@@ -317,11 +1030,10 @@ public class HttpServer {
 
         public Object unstress(Request request, Response response) {
             String body = "System is not under stress. Use POST /stress [SECONDS] to start system stress. Afterwards it can unstressed.";
-            if (underStress) {
+            if (stresser.isStressing()) {
                 body = "Stop stressing of system - " + stresser.toString();
                 try {
                     stresser.unstress();
-                    underStress = false;
                 } catch (Exception e) {
                     body = String.format("%s. %s because - %s", body, e.getClass().getSimpleName(), e.getMessage());
                     response.status(STATUS_INTERNAL_ERROR);
@@ -337,9 +1049,11 @@ public class HttpServer {
                         .map(string -> string.isEmpty() ? null : string)
                         .map(Long::valueOf)
                         .map(Duration::ofSeconds);
-                stresser.stress(stressPeriodInSeconds);
+                stresser.stress(stressPeriodInSeconds,
+                        Optional.ofNullable(request.queryParams("cpu")),
+                        IoStresser.Target.parse(name -> Optional.ofNullable(request.queryParams(name))),
+                        MemoryBandwidthStresser.Target.parse(name -> Optional.ofNullable(request.queryParams(name))));
                 body = stresser.toString();
-                underStress = true;
             } catch (Exception e) {
                 body = String.format("%s occur because - %s", e.getClass().getSimpleName(), e.getMessage());
                 response.status(STATUS_INTERNAL_ERROR);
@@ -349,19 +1063,36 @@ public class HttpServer {
     }
 
     private static class MemoryEndpoint implements Route {
+        private static final Set<String> CONFIGURE_PARAMS = new HashSet<>(Arrays.asList("rate", "lifetime", "threads", "direct", "mapped"));
 
         private final HeapConsumer memory;
+        private final AllocationChurner churner;
+        private final NativeMemoryConsumer nativeMemory;
+        private final GcTelemetry gc;
 
-        MemoryEndpoint() {
-            this.memory = new HeapConsumer();
+        MemoryEndpoint(MetricRegistry metricRegistry, CgroupTelemetry cgroup, GcTelemetry gc) {
+            this.memory = new HeapConsumer(cgroup, gc);
+            this.gc = gc;
+            this.churner = new AllocationChurner();
+            this.nativeMemory = new NativeMemoryConsumer(cgroup);
+            metricRegistry.gauge(HEAP_CONVERGENCE_ERROR_GAUGH, () -> (Gauge<Integer>) memory::convergenceError);
+            metricRegistry.gauge(HEAP_TIME_TO_TARGET_GAUGH, () -> (Gauge<Long>) memory::timeToTargetMillis);
+            metricRegistry.gauge(ALLOCATION_RATE_GAUGH, () -> (Gauge<Double>) churner::achievedMbPerSecond);
+            metricRegistry.gauge(DIRECT_MEMORY_GAUGH, () -> (Gauge<Long>) nativeMemory::directBytes);
+            metricRegistry.gauge(MAPPED_MEMORY_GAUGH, () -> (Gauge<Long>) nativeMemory::mappedBytes);
         }
 
         @Override
         public Object handle(Request request, Response response) throws Exception {
+            if (CONFIGURE_PARAMS.stream().anyMatch(request.queryParams()::contains)) {
+                return configure(request, response);
+            }
             String body = request.body();
             String responseBody = "";
             if (body == null || body.isEmpty()) {
-                responseBody = "Heap consumption is " + memory.toString() + ". Use GET/POST /memory/start [%] to reset the maximal value.";
+                responseBody = "Heap consumption is " + memory.toString() + ", garbage collection is " + gc.toString()
+                        + ", allocation churn is " + churner.toString()
+                        + " and native consumption is " + nativeMemory.toString() + ". Use GET/POST /memory/start [%] to reset the maximal value.";
             } else {
                 responseBody = "Consume /memory [" + body + "]";
                 try {
@@ -381,48 +1112,156 @@ public class HttpServer {
             return handle(request, response);
         }
 
+        /**
+         * Configure allocation churn {@code ?rate=&lifetime=&threads=} and native consumption {@code ?direct=&mapped=}.
+         */
+        Object configure(Request request, Response response) {
+            String responseBody = "";
+            try {
+                Optional<String> rate = Optional.ofNullable(request.queryParams("rate"));
+                Optional<Long> direct = Optional.ofNullable(request.queryParams("direct")).map(nativeMemory::parseTarget);
+                Optional<Long> mapped = Optional.ofNullable(request.queryParams("mapped")).map(nativeMemory::parseTarget);
+                if (rate.isPresent()) {
+                    AllocationChurner.Lifetime lifetime = AllocationChurner.Lifetime.of(Optional.ofNullable(request.queryParams("lifetime")).orElse("short"));
+                    int threads = Integer.valueOf(Optional.ofNullable(request.queryParams("threads")).orElse("1"));
+                    churner.start(Double.valueOf(rate.get()), lifetime, threads);
+                }
+                direct.ifPresent(nativeMemory::direct);
+                mapped.ifPresent(nativeMemory::mapped);
+                responseBody = "Configure /memory [" + churner + " and " + nativeMemory + "]";
+            } catch (Exception e) {
+                responseBody = String.format("/memory [%s] fail with %s because - %s", request.queryString(), e.getClass().getSimpleName(), e.getMessage());
+                System.out.println(">>  " + responseBody);
+                response.status(STATUS_BAD_REQUEST);
+            }
+            return Formatter.formatResponse(responseBody);
+        }
+
         public Object stopConsumption(Request request, Response response) {
             memory.consume(5);
-            System.out.println(">> set memory consumption back to 5%");
+            churner.stop();
+            nativeMemory.direct(0);
+            nativeMemory.mapped(0);
+            System.out.println(">> set memory consumption back to 5% and stop allocation churn and native consumption");
             return Formatter.formatResponse("stop memory consumption");
         }
     }
 
+    /**
+     * Metrics endpoint {@code /metrics} to expose the default prometheus registry with the dropwizard metrics and the
+     * hotspot collectors. Rendered snapshots are reused for {@code -DmetricsTtl=MILLIS}, gzip is served if accepted.
+     * The snapshot is written and committed here, because spark would gzip the encoded snapshot a second time.
+     */
     private static class MetricEndpoint implements Route {
 
-        private final DropwizardExports prometheus;
+        private final MetricsSnapshot snapshot;
 
-        public MetricEndpoint(DropwizardExports prometheus) {
-            this.prometheus = Objects.requireNonNull(prometheus, "'prometheus' must not be null.");
+        public MetricEndpoint(MetricsSnapshot snapshot) {
+            this.snapshot = Objects.requireNonNull(snapshot, "'snapshot' must not be null.");
+            System.out.println(">> set metrics snapshot ttl=" + snapshot.ttlMillis());
         }
 
         @Override
         public Object handle(Request request, Response response) throws Exception {
-            String metrics = "";
-            try (PrintWriter writer = response.raw().getWriter()) {
-                TextFormat.write004(writer, new Vector<>(prometheus.collect()).elements());
-                writer.flush();
-                metrics = writer.toString();
-                response.body(metrics);
+            try {
+                boolean gzip = Optional.ofNullable(request.headers("Accept-Encoding")).filter(encoding -> encoding.contains("gzip")).isPresent();
+                byte[] metrics = gzip ? snapshot.gzip() : snapshot.text();
+                HttpServletResponse raw = response.raw();
+                raw.setContentType(TextFormat.CONTENT_TYPE_004);
+                if (gzip) {
+                    raw.setHeader("Content-Encoding", "gzip");
+                }
+                raw.setContentLength(metrics.length);
+                raw.getOutputStream().write(metrics);
+                raw.flushBuffer();
+                return "";
             } catch (IOException e) {
                 response.status(STATUS_INTERNAL_ERROR);
-                response.body(e.getMessage());
+                return Formatter.formatResponse(e.getClass().getSimpleName() + " - " + e.getMessage(), STATUS_INTERNAL_ERROR);
             }
-            return Formatter.formatResponse(metrics);
         }
     }
 
     /**
-     * Formatter for response body.
+     * Formatter for response body {@code [STATUS] [HOST_ADDRESS HOST_NAME] [MESSAGE]}. <br/>
+     * The host info is resolved once and refreshed every {@code HOST_REFRESH_PERIOD} in the background. The status and
+     * host prefix is cached per status as string and as encoded bytes, constant probe responses are cached completely.
      */
-    private static class Formatter {
-        private static String formatResponse(String message) {
+    static class Formatter {
+        private static final long HOST_REFRESH_PERIOD_IN_SECONDS = 30;
+        private static final Map<Integer, Prefix> prefixes = new ConcurrentHashMap<>();
+        private static volatile String hostinfo = hostinfo();
+
+        static {
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "hostinfo-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }).scheduleWithFixedDelay(Formatter::refreshHostinfo, HOST_REFRESH_PERIOD_IN_SECONDS, HOST_REFRESH_PERIOD_IN_SECONDS, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Status and host prefix {@code "200 [HOST] "} as string and as UTF-8 bytes with the cached responses of its status.
+         */
+        private static class Prefix {
+            private final String string;
+            private final byte[] bytes;
+            private final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+
+            Prefix(int status, String hostinfo) {
+                this.string = String.format("%3s [%s] ", status, hostinfo);
+                this.bytes = string.getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        static String formatResponse(String message) {
             int status = STATUS_OK;
             return formatResponse(message, status);
         }
 
-        private static String formatResponse(String message, int status) {
-            return String.format("%3s [%s] %s", status, hostinfo(), message);
+        static String formatResponse(String message, int status) {
+            return prefix(status).string.concat(message);
+        }
+
+        /**
+         * Encode the response without intermediate strings. ASCII messages are copied char by char behind the prefix.
+         */
+        static byte[] encodeResponse(String message, int status) {
+            byte[] prefix = prefix(status).bytes;
+            int length = message.length();
+            byte[] response = new byte[prefix.length + length];
+            System.arraycopy(prefix, 0, response, 0, prefix.length);
+            for (int i = 0; i < length; i++) {
+                char c = message.charAt(i);
+                if (c > 0x7f) {
+                    return formatResponse(message, status).getBytes(StandardCharsets.UTF_8);
+                }
+                response[prefix.length + i] = (byte) c;
+            }
+            return response;
+        }
+
+        /**
+         * Encode a constant response once and return the cached bytes afterwards.
+         */
+        static byte[] cachedResponse(String message, int status) {
+            Map<String, byte[]> responses = prefix(status).responses;
+            byte[] response = responses.get(message);
+            return response != null ? response : responses.computeIfAbsent(message, __ -> encodeResponse(message, status));
+        }
+
+        private static Prefix prefix(int status) {
+            Prefix prefix = prefixes.get(status);
+            return prefix != null ? prefix : prefixes.computeIfAbsent(status, __ -> new Prefix(status, hostinfo));
+        }
+
+        private static void refreshHostinfo() {
+            String current = hostinfo();
+            if (!current.equals(hostinfo)) {
+                System.out.println(">> hostinfo changed from '" + hostinfo + "' to '" + current + "'");
+                hostinfo = current;
+                prefixes.clear();
+            }
         }
 
         private static String hostinfo() {
@@ -0,0 +1,308 @@
+package de.jwausle.kubernetes;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * In-process disk I/O stress engine to hold a target throughput against a local directory. <br/>
+ * Each of {@code depth} worker threads owns a {@code FILE_SIZE} file and issues blocking operations paced to its share of
+ * the target, so {@code depth} is the number of outstanding requests. Each file is filled completely before the first
+ * operation. Writes are positional {@link FileChannel} writes with an optional {@code force()}, reads are positional
+ * {@link FileChannel} reads or, with {@code mapped=true}, copies out of a read-only mapping of the filled file. Without
+ * {@code O_DIRECT} or {@code posix_fadvise} in java the reads are served by the page cache as long as the files fit into
+ * it, only writes with {@code sync=true} reliably reach the device.
+ * <li>io=MB_PER_SEC or iops=OPS_PER_SEC - target throughput</li>
+ * <li>block=BYTES                      - block size with optional {@code k|m} suffix up to {@code FILE_SIZE} (default: 4k)</li>
+ * <li>depth=INT                        - worker threads (default: 1)</li>
+ * <li>sync=true|false                  - force each write to the device (default: false)</li>
+ * <li>read=PERCENT                     - share of read operations (default: 0)</li>
+ * <li>mapped=true|false                - read through a memory mapping instead of the channel (default: false)</li>
+ * <li>dir=PATH                         - directory for the files (default: java.io.tmpdir)</li>
+ */
+public class IoStresser {
+    private static final long FILE_SIZE = 64L * 1024 * 1024;
+    private static final int FILL_BLOCK_SIZE = 1024 * 1024;
+    private static final long MEASURE_PERIOD_IN_MILLIS = 1000;
+    private static final long LATENCY_WINDOW_IN_SECONDS = 10;
+    private static final double MB = 1024 * 1024;
+
+    private final Histogram latency = new Histogram(new SlidingTimeWindowArrayReservoir(LATENCY_WINDOW_IN_SECONDS, TimeUnit.SECONDS));
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final ScheduledExecutorService controller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "io-stress-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Thread> workers = new ArrayList<>();
+    private ScheduledFuture<?> measure;
+    private ScheduledFuture<?> timeout;
+    private volatile Target target;
+    private volatile double achievedMbPerSecond = 0;
+    private volatile double achievedIops = 0;
+    private long lastOperations;
+    private long lastBytes;
+    private long lastMeasureNanos;
+
+    /**
+     * Target of the I/O stress.
+     */
+    public static class Target {
+        private final double mbPerSecond;
+        private final double iops;
+        private final int blockSize;
+        private final int depth;
+        private final boolean sync;
+        private final int readPercentage;
+        private final boolean mapped;
+        private final Path directory;
+
+        public Target(double mbPerSecond, double iops, int blockSize, int depth, boolean sync, int readPercentage, boolean mapped, Path directory) {
+            if (mbPerSecond <= 0 && iops <= 0) {
+                throw new IllegalArgumentException("io=" + mbPerSecond + " or iops=" + iops + " must be greather than 0.");
+            } else if (blockSize < 1 || depth < 1) {
+                throw new IllegalArgumentException("block=" + blockSize + " and depth=" + depth + " must be greather than 0.");
+            } else if (blockSize > FILE_SIZE) {
+                throw new IllegalArgumentException("block=" + blockSize + " must be smaller than " + FILE_SIZE + ". Its the size of a stress file.");
+            } else if (readPercentage < 0 || readPercentage > 100) {
+                throw new IllegalArgumentException(readPercentage + " must be between [0 - 100]. Its a percentage value.");
+            }
+            this.mbPerSecond = mbPerSecond;
+            this.iops = iops;
+            this.blockSize = blockSize;
+            this.depth = depth;
+            this.sync = sync;
+            this.readPercentage = readPercentage;
+            this.mapped = mapped;
+            this.directory = directory;
+        }
+
+        /**
+         * Parse the target from request parameters {@code io|iops, block, depth, sync, read, mapped, dir}.
+         *
+         * @param param lookup of a request parameter by name
+         * @return target or empty if neither {@code io} nor {@code iops} is set
+         */
+        public static Optional<Target> parse(Function<String, Optional<String>> param) {
+            Optional<String> io = param.apply("io");
+            Optional<String> iops = param.apply("iops");
+            if (!io.isPresent() && !iops.isPresent()) {
+                return Optional.empty();
+            }
+            return Optional.of(new Target(
+                    io.map(Double::valueOf).orElse(0d),
+                    iops.map(Double::valueOf).orElse(0d),
+                    Math.toIntExact(NativeMemoryConsumer.parseBytes(param.apply("block").orElse("4k"))),
+                    param.apply("depth").map(Integer::valueOf).orElse(1),
+                    param.apply("sync").map(Boolean::valueOf).orElse(false),
+                    param.apply("read").map(Integer::valueOf).orElse(0),
+                    param.apply("mapped").map(Boolean::valueOf).orElse(false),
+                    Paths.get(param.apply("dir").orElse(System.getProperty("java.io.tmpdir")))));
+        }
+
+        private double opsPerSecond() {
+            return iops > 0 ? iops : mbPerSecond * MB / blockSize;
+        }
+
+        @Override
+        public String toString() {
+            return (iops > 0 ? String.format("'%.0f' iops", iops) : String.format("'%.1f' MB/s", mbPerSecond))
+                    + String.format(" of '%s' byte blocks in depth '%s' with sync '%s' and '%s'%% %sreads in '%s'", blockSize, depth, sync, readPercentage, mapped ? "mapped " : "", directory);
+        }
+    }
+
+    /**
+     * Start or retarget the worker threads.
+     *
+     * @param target target throughput and access pattern
+     * @param period optional period until the workers stop, default forever
+     */
+    public synchronized void start(Target target, Optional<Duration> period) {
+        stop();
+        this.target = target;
+        double opsPerSecondAndWorker = target.opsPerSecond() / target.depth;
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < target.depth; i++) {
+                Path file = Files.createTempFile(target.directory, "io-stress", ".bin");
+                files.add(file);
+                Thread worker = new Thread(() -> work(target, file, opsPerSecondAndWorker), "io-stress-" + i);
+                worker.setDaemon(true);
+                worker.start();
+                workers.add(worker);
+            }
+        } catch (IOException | RuntimeException e) {
+            stop();
+            files.forEach(IoStresser::delete);
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        lastOperations = operations.sum();
+        lastBytes = bytes.sum();
+        lastMeasureNanos = System.nanoTime();
+        measure = controller.scheduleAtFixedRate(this::measure, MEASURE_PERIOD_IN_MILLIS, MEASURE_PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+        timeout = period.map(duration -> controller.schedule(this::stop, duration.toMillis(), TimeUnit.MILLISECONDS)).orElse(null);
+        System.out.println(">> start io stress with " + target);
+    }
+
+    public synchronized void stop() {
+        if (measure != null) {
+            measure.cancel(false);
+            measure = null;
+        }
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+        workers.forEach(Thread::interrupt);
+        workers.clear();
+        target = null;
+        achievedMbPerSecond = 0;
+        achievedIops = 0;
+    }
+
+    public boolean isRunning() {
+        return target != null;
+    }
+
+    /**
+     * @return latency of single I/O operations in nano seconds over the last {@code LATENCY_WINDOW} seconds
+     */
+    public Histogram latency() {
+        return latency;
+    }
+
+    public double achievedMbPerSecond() {
+        return achievedMbPerSecond;
+    }
+
+    public double achievedIops() {
+        return achievedIops;
+    }
+
+    @Override
+    public String toString() {
+        Target current = target;
+        if (current == null) {
+            return "no io stress";
+        }
+        Snapshot snapshot = latency.getSnapshot();
+        return String.format("io '%.1f' MB/s and '%.0f' iops with latency p50 '%d' p99 '%d' p999 '%d' micros of requested %s",
+                achievedMbPerSecond, achievedIops,
+                TimeUnit.NANOSECONDS.toMicros((long) snapshot.getMedian()),
+                TimeUnit.NANOSECONDS.toMicros((long) snapshot.get99thPercentile()),
+                TimeUnit.NANOSECONDS.toMicros((long) snapshot.get999thPercentile()),
+                current);
+    }
+
+    private synchronized void measure() {
+        long currentOperations = operations.sum();
+        long currentBytes = bytes.sum();
+        long nanos = System.nanoTime();
+        double seconds = (nanos - lastMeasureNanos) / 1e9;
+        achievedIops = (currentOperations - lastOperations) / seconds;
+        achievedMbPerSecond = (currentBytes - lastBytes) / MB / seconds;
+        lastOperations = currentOperations;
+        lastBytes = currentBytes;
+        lastMeasureNanos = nanos;
+    }
+
+    private void work(Target target, Path file, double opsPerSecond) {
+        long blocks = FILE_SIZE / target.blockSize;
+        ByteBuffer block = ByteBuffer.allocateDirect(target.blockSize);
+        ByteBuffer readBlock = ByteBuffer.allocateDirect(target.blockSize);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        MappedByteBuffer mapping = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            fill(channel);
+            mapping = target.mapped ? channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_SIZE) : null;
+            long done = 0;
+            long start = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted()) {
+                long allowed = (long) ((System.nanoTime() - start) / 1e9 * opsPerSecond);
+                // catch up at most one second of missed operations
+                done = Math.max(done, allowed - (long) opsPerSecond);
+                if (done >= allowed) {
+                    TimeUnit.NANOSECONDS.sleep(Math.max(1000, (long) (1e9 / opsPerSecond)));
+                    continue;
+                }
+                long offset = random.nextLong(blocks) * target.blockSize;
+                boolean read = random.nextInt(100) < target.readPercentage;
+                long operationStart = System.nanoTime();
+                if (read && mapping != null) {
+                    readBlock.clear();
+                    readBlock.put(mapping.duplicate().position((int) offset).limit((int) offset + target.blockSize));
+                } else if (read) {
+                    readBlock.clear();
+                    while (readBlock.hasRemaining() && channel.read(readBlock, offset + readBlock.position()) > 0) {
+                        // read the whole block
+                    }
+                } else {
+                    block.clear();
+                    block.put(0, (byte) done);
+                    channel.write(block, offset);
+                    if (target.sync) {
+                        channel.force(false);
+                    }
+                }
+                latency.update(System.nanoTime() - operationStart);
+                operations.increment();
+                bytes.add(target.blockSize);
+                done++;
+            }
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.printf("I/O stress fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+        } finally {
+            if (mapping != null) {
+                NativeMemoryConsumer.free(mapping);
+            }
+            delete(file);
+        }
+    }
+
+    /**
+     * Write every block of the file, so reads never hit holes served as zero pages without I/O.
+     */
+    private static void fill(FileChannel channel) throws IOException {
+        ByteBuffer fill = ByteBuffer.allocateDirect(FILL_BLOCK_SIZE);
+        ThreadLocalRandom.current().ints(FILL_BLOCK_SIZE).forEach(value -> fill.put((byte) value));
+        for (long position = 0; position < FILE_SIZE; position += FILL_BLOCK_SIZE) {
+            fill.clear();
+            while (fill.hasRemaining()) {
+                channel.write(fill, position + fill.position());
+            }
+        }
+        channel.force(false);
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.printf("Deleting '%s' fail with %s because - %s\n", file, e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+}
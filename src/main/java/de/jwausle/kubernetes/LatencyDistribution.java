@@ -0,0 +1,259 @@
+package de.jwausle.kubernetes;
+
+import io.prometheus.client.Collector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Distribution of the simulated request processing time in millis, capped at {@code MAX_MILLIS}.
+ * <li>fixed?millis=MILLIS                         - always MILLIS</li>
+ * <li>uniform?min=MILLIS&max=MILLIS               - uniform between min and max</li>
+ * <li>lognormal?median=MILLIS&sigma=SIGMA         - log-normal with median and shape sigma</li>
+ * <li>pareto?scale=MILLIS&shape=ALPHA             - pareto long tail above scale, heavier for smaller alpha</li>
+ * <li>bimodal?fast=MILLIS&slow=MILLIS&fraction=RATIO&jitter=RATIO - slow for a fraction of the requests, each +/- jitter</li>
+ * <li>replay?histogram=LE:COUNT,LE:COUNT,...      - recorded prometheus histogram of upper bounds and cumulative counts,
+ * uniform within a bucket</li>
+ */
+public abstract class LatencyDistribution {
+    static final long MAX_MILLIS = 60_000;
+
+    private final String name;
+    private final Map<String, Double> parameters;
+
+    private LatencyDistribution(String name, Map<String, Double> parameters) {
+        this.name = name;
+        this.parameters = Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * Export the active distribution and its parameters:
+     * <li>latency_distribution_info{distribution}                 - 1 for the active distribution</li>
+     * <li>latency_distribution_parameter{distribution,parameter}  - value of each parameter</li>
+     */
+    public static class Exports extends Collector {
+        private final Supplier<LatencyDistribution> active;
+
+        public Exports(Supplier<LatencyDistribution> active) {
+            this.active = active;
+        }
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            LatencyDistribution distribution = active.get();
+            List<MetricFamilySamples.Sample> parameters = new ArrayList<>();
+            distribution.parameters.forEach((name, value) -> parameters.add(new MetricFamilySamples.Sample("latency_distribution_parameter",
+                    Arrays.asList("distribution", "parameter"), Arrays.asList(distribution.name, name), value)));
+            return Arrays.asList(
+                    new MetricFamilySamples("latency_distribution_info", Type.GAUGE, "Active distribution of the simulated request time.",
+                            Collections.singletonList(new MetricFamilySamples.Sample("latency_distribution_info",
+                                    Collections.singletonList("distribution"), Collections.singletonList(distribution.name), 1))),
+                    new MetricFamilySamples("latency_distribution_parameter", Type.GAUGE, "Parameters of the active distribution of the simulated request time.", parameters));
+        }
+    }
+
+    /**
+     * Parse a distribution from request parameters {@code dist} and its parameters.
+     *
+     * @param param lookup of a request parameter by name
+     * @return distribution or empty if {@code dist} is not set
+     */
+    public static Optional<LatencyDistribution> parse(Function<String, Optional<String>> param) {
+        return param.apply("dist").map(dist -> {
+            Function<String, Double> number = name -> param.apply(name).map(Double::valueOf)
+                    .orElseThrow(() -> new IllegalArgumentException("'" + name + "' is mandatory for distribution '" + dist + "'."));
+            switch (dist.trim().toLowerCase()) {
+                case "fixed":
+                    return fixed(number.apply("millis"));
+                case "uniform":
+                    return uniform(param.apply("min").map(Double::valueOf).orElse(0d), number.apply("max"));
+                case "lognormal":
+                    return logNormal(number.apply("median"), number.apply("sigma"));
+                case "pareto":
+                    return pareto(number.apply("scale"), number.apply("shape"));
+                case "bimodal":
+                    return bimodal(number.apply("fast"), number.apply("slow"), number.apply("fraction"), param.apply("jitter").map(Double::valueOf).orElse(0d));
+                case "replay":
+                    return replay(param.apply("histogram").orElseThrow(() -> new IllegalArgumentException("'histogram' is mandatory for distribution '" + dist + "'.")));
+                default:
+                    throw new IllegalArgumentException(dist + " must be one of [fixed, uniform, lognormal, pareto, bimodal, replay].");
+            }
+        });
+    }
+
+    public static LatencyDistribution fixed(double millis) {
+        positive("millis", millis);
+        return new LatencyDistribution("fixed", parameters("millis", millis)) {
+            @Override
+            double sample(ThreadLocalRandom random) {
+                return millis;
+            }
+        };
+    }
+
+    public static LatencyDistribution uniform(double min, double max) {
+        positive("min", min);
+        if (max <= min) {
+            throw new IllegalArgumentException("max=" + max + " must be greather than min=" + min + ".");
+        }
+        return new LatencyDistribution("uniform", parameters("min", min, "max", max)) {
+            @Override
+            double sample(ThreadLocalRandom random) {
+                return random.nextDouble(min, max);
+            }
+        };
+    }
+
+    public static LatencyDistribution logNormal(double median, double sigma) {
+        positive("median", median);
+        positive("sigma", sigma);
+        double mu = Math.log(median);
+        return new LatencyDistribution("lognormal", parameters("median", median, "sigma", sigma)) {
+            @Override
+            double sample(ThreadLocalRandom random) {
+                return Math.exp(mu + sigma * random.nextGaussian());
+            }
+        };
+    }
+
+    public static LatencyDistribution pareto(double scale, double shape) {
+        positive("scale", scale);
+        if (shape <= 0) {
+            throw new IllegalArgumentException(shape + " must be greather than 0. Its the pareto shape.");
+        }
+        return new LatencyDistribution("pareto", parameters("scale", scale, "shape", shape)) {
+            @Override
+            double sample(ThreadLocalRandom random) {
+                // inverse transform, 1 - nextDouble() is in (0, 1]
+                return scale / Math.pow(1 - random.nextDouble(), 1 / shape);
+            }
+        };
+    }
+
+    public static LatencyDistribution bimodal(double fast, double slow, double fraction, double jitter) {
+        positive("fast", fast);
+        positive("slow", slow);
+        ratio("fraction", fraction);
+        ratio("jitter", jitter);
+        return new LatencyDistribution("bimodal", parameters("fast", fast, "slow", slow, "fraction", fraction, "jitter", jitter)) {
+            @Override
+            double sample(ThreadLocalRandom random) {
+                double millis = random.nextDouble() < fraction ? slow : fast;
+                return millis * (1 + jitter * random.nextDouble(-1, 1));
+            }
+        };
+    }
+
+    /**
+     * Replay a prometheus histogram, the count of a bucket is the difference to the count of the previous bucket. The
+     * {@code +Inf} bucket is clamped to the previous bound.
+     *
+     * @param histogram upper bounds and cumulative counts {@code LE:COUNT,LE:COUNT,...} in ascending order of the bounds
+     */
+    public static LatencyDistribution replay(String histogram) {
+        double[][] buckets = Arrays.stream(histogram.split(","))
+                .map(bucket -> bucket.trim().split(":"))
+                .map(bucket -> {
+                    if (bucket.length != 2) {
+                        throw new IllegalArgumentException(String.join(":", bucket) + " must be a bucket of 'LE:COUNT'.");
+                    }
+                    return new double[]{upperBound(bucket[0]), Double.valueOf(bucket[1])};
+                })
+                .toArray(double[][]::new);
+        double[] bounds = new double[buckets.length];
+        double[] cumulative = new double[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            positive("le", buckets[i][0]);
+            positive("count", buckets[i][1]);
+            if (i > 0 && buckets[i][0] <= bounds[i - 1]) {
+                throw new IllegalArgumentException(histogram + " must have ascending upper bounds.");
+            } else if (i > 0 && buckets[i][1] < cumulative[i - 1]) {
+                throw new IllegalArgumentException(histogram + " must have cumulative counts.");
+            } else if (Double.isInfinite(buckets[i][0]) && (i == 0 || i < buckets.length - 1)) {
+                throw new IllegalArgumentException(histogram + " must have '+Inf' as last bucket after a finite one.");
+            }
+            bounds[i] = Double.isInfinite(buckets[i][0]) ? bounds[i - 1] : buckets[i][0];
+            cumulative[i] = buckets[i][1];
+        }
+        double total = cumulative[cumulative.length - 1];
+        if (total <= 0) {
+            throw new IllegalArgumentException(histogram + " must have at least one count.");
+        }
+        Map<String, Double> parameters = new LinkedHashMap<>();
+        parameters.put("buckets", (double) buckets.length);
+        parameters.put("count", total);
+        parameters.put("max", bounds[bounds.length - 1]);
+        return new LatencyDistribution("replay", parameters) {
+            @Override
+            double sample(ThreadLocalRandom random) {
+                double position = random.nextDouble(total);
+                int bucket = Arrays.binarySearch(cumulative, position);
+                bucket = bucket >= 0 ? bucket + 1 : -bucket - 1;
+                bucket = Math.min(bucket, bounds.length - 1);
+                double lower = bucket == 0 ? 0 : bounds[bucket - 1];
+                return lower < bounds[bucket] ? random.nextDouble(lower, bounds[bucket]) : lower;
+            }
+        };
+    }
+
+    /**
+     * @return next processing time in millis
+     */
+    public long nextMillis() {
+        return Math.max(0, Math.min(MAX_MILLIS, Math.round(sample(ThreadLocalRandom.current()))));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Map<String, Double> parameters() {
+        return parameters;
+    }
+
+    @Override
+    public String toString() {
+        return name + parameters.entrySet().stream()
+                .map(parameter -> parameter.getKey() + "=" + parameter.getValue())
+                .collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    abstract double sample(ThreadLocalRandom random);
+
+    private static Map<String, Double> parameters(Object... namesAndValues) {
+        Map<String, Double> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            parameters.put((String) namesAndValues[i], (Double) namesAndValues[i + 1]);
+        }
+        return parameters;
+    }
+
+    /**
+     * @param le upper bound or {@code +Inf}, also without {@code +} as it decodes to a space in a query
+     */
+    private static double upperBound(String le) {
+        String bound = le.trim();
+        return "+Inf".equalsIgnoreCase(bound) || "Inf".equalsIgnoreCase(bound) ? Double.POSITIVE_INFINITY : Double.valueOf(bound);
+    }
+
+    private static void positive(String name, double value) {
+        if (value < 0 || Double.isNaN(value)) {
+            throw new IllegalArgumentException(name + "=" + value + " must be greather or equal than 0.");
+        }
+    }
+
+    private static void ratio(String name, double value) {
+        if (value < 0 || value > 1) {
+            throw new IllegalArgumentException(name + "=" + value + " must be between [0 - 1]. Its a ratio.");
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package de.jwausle.kubernetes;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Open-loop load generator, which sends requests to a target url at a fixed rate with an async jetty {@link HttpClient}. <br/>
+ * Request {@code i} is due at {@code start + i / rate}, independent of the answers of earlier requests. Its latency is
+ * measured from that due time, so a stalled server is charged for the requests it delayed (coordinated omission
+ * correction). The latency from the actual send is reported as service time next to it. Both are recorded in
+ * HdrHistogram {@link Recorder}s, so a report can be taken while the run is going on.
+ */
+public class LoadGenerator {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final int MAX_QUEUED_REQUESTS = 1 << 16;
+    private static final int MAX_RATE = 1_000_000;
+
+    private volatile Run current;
+
+    /**
+     * Target of a run.
+     */
+    public static class Target {
+        private final URI url;
+        private final int rate;
+        private final Duration duration;
+        private final int connections;
+        private final Duration timeout;
+
+        public Target(URI url, int rate, Duration duration, int connections, Duration timeout) {
+            this.url = Objects.requireNonNull(url, "'url' must not be null.");
+            this.rate = rate;
+            this.duration = Objects.requireNonNull(duration, "'duration' must not be null.");
+            this.connections = connections;
+            this.timeout = Objects.requireNonNull(timeout, "'timeout' must not be null.");
+            if (rate <= 0) {
+                throw new IllegalArgumentException(rate + " must be greather than 0. Its a request rate.");
+            } else if (rate > MAX_RATE) {
+                throw new IllegalArgumentException(rate + " must be smaller than " + MAX_RATE + ". Its a request rate.");
+            } else if (duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException(duration + " must be greather than 0. Its a load duration.");
+            } else if (connections <= 0) {
+                throw new IllegalArgumentException(connections + " must be greather than 0. Its a connection count.");
+            } else if (timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException(timeout + " must be greather than 0. Its a request timeout.");
+            }
+        }
+
+        /**
+         * Parse {@code url=URL&rate=PER_SECOND&duration=SECONDS&connections=INT&timeout=MILLIS}.
+         *
+         * @param param lookup of a parameter by name
+         * @return target or empty if {@code url} is not set
+         */
+        public static Optional<Target> parse(Function<String, Optional<String>> param) {
+            return param.apply("url").map(url -> new Target(URI.create(url.trim()),
+                    param.apply("rate").map(Integer::valueOf).orElse(100),
+                    Duration.ofSeconds(param.apply("duration").map(Long::valueOf).orElse(10L)),
+                    param.apply("connections").map(Integer::valueOf).orElse(64),
+                    Duration.ofMillis(param.apply("timeout").map(Long::valueOf).orElse(10_000L))));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s at '%s' requests/s for '%s' seconds over '%s' connections with timeout '%s' millis",
+                    url, rate, duration.getSeconds(), connections, timeout.toMillis());
+        }
+    }
+
+    /**
+     * One run against a target.
+     */
+    public static class Run {
+        private final Target target;
+        private final HttpClient client;
+        private final CompletableFuture<Run> done = new CompletableFuture<>();
+        private final Recorder latency = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final Recorder serviceTime = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        // accumulated under the lock of the run
+        private final Histogram latencyTotal = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final Histogram serviceTimeTotal = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final Histogram interval = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final AtomicLong outstanding = new AtomicLong();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failedStatus = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private volatile boolean stopped = false;
+        private volatile boolean sending = true;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        // 0 until the client is started and the first request is due
+        private volatile long startNanos = 0;
+        private volatile long endNanos = 0;
+
+        private Run(Target target) {
+            this.target = target;
+            QueuedThreadPool executor = new QueuedThreadPool();
+            executor.setName("load-client");
+            executor.setDaemon(true);
+            this.client = new HttpClient();
+            client.setExecutor(executor);
+            client.setScheduler(new ScheduledExecutorScheduler("load-scheduler", true));
+            client.setMaxConnectionsPerDestination(target.connections);
+            client.setMaxRequestsQueuedPerDestination(MAX_QUEUED_REQUESTS);
+            client.setConnectTimeout(target.timeout.toMillis());
+            client.setFollowRedirects(false);
+        }
+
+        /**
+         * @return future completing after the last answer
+         */
+        public CompletableFuture<Run> done() {
+            return done;
+        }
+
+        public void stop() {
+            stopped = true;
+        }
+
+        public boolean isDone() {
+            return done.isDone();
+        }
+
+        /**
+         * @return throughput, counts and latency percentiles up to now
+         */
+        public synchronized String report() {
+            if (startNanos == 0) {
+                return String.format("load %s on %s%n", isDone() ? "failed" : "starting", target);
+            }
+            latency.getIntervalHistogramInto(interval);
+            latencyTotal.add(interval);
+            serviceTime.getIntervalHistogramInto(interval);
+            serviceTimeTotal.add(interval);
+            long end = endNanos > 0 ? endNanos : System.nanoTime();
+            double seconds = Math.max(1, end - startNanos) / 1e9;
+            long completed = succeeded.sum() + failedStatus.sum() + errors.sum();
+            StringBuilder report = new StringBuilder(String.format("load %s on %s%n", isDone() ? "done" : "running", target))
+                    .append(String.format("  '%s' sent, '%s' completed, '%s' non 2xx, '%s' errors in '%.1f' seconds%n",
+                            sent.sum(), completed, failedStatus.sum(), errors.sum(), seconds))
+                    .append(String.format("  throughput '%.1f' requests/s of '%s' requests/s%n", completed / seconds, target.rate));
+            percentiles(report, "latency     ", latencyTotal);
+            percentiles(report, "service time", serviceTimeTotal);
+            return report.toString();
+        }
+
+        private static void percentiles(StringBuilder report, String name, Histogram histogram) {
+            report.append("  ").append(name).append(" millis");
+            for (double percentile : PERCENTILES) {
+                report.append(String.format(" p%s=%.2f", percentile, histogram.getValueAtPercentile(percentile) / 1e3));
+            }
+            report.append(String.format(" max=%.2f%n", histogram.getMaxValue() / 1e3));
+        }
+
+        private void run() {
+            try {
+                client.start();
+                long start = System.nanoTime();
+                startNanos = start;
+                long end = start + target.duration.toNanos();
+                for (long i = 0; !stopped; i++) {
+                    // whole seconds and the rest separately, so the due times neither drift nor overflow
+                    long due = start + TimeUnit.SECONDS.toNanos(i / target.rate) + TimeUnit.SECONDS.toNanos(i % target.rate) / target.rate;
+                    if (due >= end) {
+                        break;
+                    }
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    send(due);
+                }
+            } catch (Exception e) {
+                System.out.printf("Load generation fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+            } finally {
+                sending = false;
+                if (outstanding.get() == 0) {
+                    finish();
+                }
+            }
+        }
+
+        private void send(long due) {
+            long sentNanos = System.nanoTime();
+            outstanding.incrementAndGet();
+            sent.increment();
+            client.newRequest(target.url).timeout(target.timeout.toMillis(), TimeUnit.MILLISECONDS).send(result -> {
+                long now = System.nanoTime();
+                latency.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(now - due)));
+                serviceTime.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(now - sentNanos)));
+                if (result.isFailed()) {
+                    errors.increment();
+                } else if (result.getResponse().getStatus() / 100 == 2) {
+                    succeeded.increment();
+                } else {
+                    failedStatus.increment();
+                }
+                if (outstanding.decrementAndGet() == 0 && !sending) {
+                    finish();
+                }
+            });
+        }
+
+        private void finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            endNanos = System.nanoTime();
+            // not on a client thread, the client waits for its threads on stop
+            CompletableFuture.runAsync(() -> {
+                try {
+                    client.stop();
+                } catch (Exception e) {
+                    System.out.printf("Stopping load client fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+                }
+                System.out.println(">> finish load " + target);
+            }).thenRun(() -> done.complete(this));
+        }
+    }
+
+    /**
+     * Start a run in the background, only one run at a time.
+     *
+     * @throws IllegalStateException if a run is in progress
+     */
+    public synchronized Run start(Target target) {
+        if (current != null && !current.isDone()) {
+            throw new IllegalStateException("load is running already - " + current.target);
+        }
+        Run run = new Run(target);
+        Thread sender = new Thread(run::run, "load-generator");
+        sender.setDaemon(true);
+        current = run;
+        sender.start();
+        System.out.println(">> start load " + target);
+        return run;
+    }
+
+    /**
+     * @return latest run or empty if no run was started
+     */
+    public Optional<Run> current() {
+        return Optional.ofNullable(current);
+    }
+}
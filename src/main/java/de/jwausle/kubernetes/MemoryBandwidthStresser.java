@@ -0,0 +1,191 @@
+package de.jwausle.kubernetes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * In-process memory bandwidth stress engine to produce memory bus contention. <br/>
+ * Each worker thread streams read-modify-write passes over its own off-heap buffer, which should be larger than the
+ * last level cache. Every access reads and writes one long, the traffic is counted as the touched part of its cache line
+ * in both directions, so a stride of 64 or more bytes moves a full line per access.
+ * <li>bandwidth=GB_PER_SEC - target bandwidth of all workers, 0 for unthrottled (default: 0)</li>
+ * <li>stride=BYTES         - distance between two accesses (default: 64)</li>
+ * <li>threads=INT          - worker threads (default: 1)</li>
+ * <li>buffer=BYTES         - buffer size per worker with optional {@code k|m|g} suffix (default: 64m)</li>
+ */
+public class MemoryBandwidthStresser {
+    private static final int CACHE_LINE_SIZE = 64;
+    private static final long PACING_CHUNK_BYTES = 1024 * 1024;
+    private static final long MEASURE_PERIOD_IN_MILLIS = 1000;
+    private static final double GB = 1024 * 1024 * 1024;
+
+    private final LongAdder trafficBytes = new LongAdder();
+    private final ScheduledExecutorService controller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bandwidth-stress-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Thread> workers = new ArrayList<>();
+    private ScheduledFuture<?> measure;
+    private ScheduledFuture<?> timeout;
+    private volatile Target target;
+    private volatile double achievedGbPerSecond = 0;
+    private long lastTrafficBytes;
+    private long lastMeasureNanos;
+
+    /**
+     * Target of the memory bandwidth stress.
+     */
+    public static class Target {
+        private final double gbPerSecond;
+        private final int stride;
+        private final int threads;
+        private final int bufferSize;
+
+        public Target(double gbPerSecond, int stride, int threads, int bufferSize) {
+            if (gbPerSecond < 0) {
+                throw new IllegalArgumentException(gbPerSecond + " must be greather or equal than 0. Its a GB/s value.");
+            } else if (stride < 8 || threads < 1 || bufferSize < stride) {
+                throw new IllegalArgumentException("stride=" + stride + " must be at least 8, threads=" + threads
+                        + " greather than 0 and buffer=" + bufferSize + " at least one stride.");
+            }
+            this.gbPerSecond = gbPerSecond;
+            this.stride = stride;
+            this.threads = threads;
+            this.bufferSize = bufferSize;
+        }
+
+        /**
+         * Parse the target from request parameters {@code bandwidth, stride, threads, buffer}.
+         *
+         * @param param lookup of a request parameter by name
+         * @return target or empty if {@code bandwidth} is not set
+         */
+        public static Optional<Target> parse(Function<String, Optional<String>> param) {
+            return param.apply("bandwidth").map(bandwidth -> new Target(
+                    Double.valueOf(bandwidth),
+                    (int) NativeMemoryConsumer.parseBytes(param.apply("stride").orElse("64")),
+                    param.apply("threads").map(Integer::valueOf).orElse(1),
+                    (int) NativeMemoryConsumer.parseBytes(param.apply("buffer").orElse("64m"))));
+        }
+
+        private long trafficPerAccess() {
+            return 2L * Math.min(stride, CACHE_LINE_SIZE);
+        }
+
+        @Override
+        public String toString() {
+            return (gbPerSecond > 0 ? String.format("'%.2f' GB/s", gbPerSecond) : "unthrottled GB/s")
+                    + String.format(" with stride '%s' in '%s' threads over '%s' MB buffers", stride, threads, bufferSize >> 20);
+        }
+    }
+
+    /**
+     * Start or retarget the worker threads.
+     *
+     * @param target target bandwidth and access pattern
+     * @param period optional period until the workers stop, default forever
+     */
+    public synchronized void start(Target target, Optional<Duration> period) {
+        stop();
+        this.target = target;
+        double bytesPerSecondAndWorker = target.gbPerSecond * GB / target.threads;
+        for (int i = 0; i < target.threads; i++) {
+            Thread worker = new Thread(() -> stream(target, bytesPerSecondAndWorker), "bandwidth-stress-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        lastTrafficBytes = trafficBytes.sum();
+        lastMeasureNanos = System.nanoTime();
+        measure = controller.scheduleAtFixedRate(this::measure, MEASURE_PERIOD_IN_MILLIS, MEASURE_PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+        timeout = period.map(duration -> controller.schedule(this::stop, duration.toMillis(), TimeUnit.MILLISECONDS)).orElse(null);
+        System.out.println(">> start memory bandwidth stress with " + target);
+    }
+
+    public synchronized void stop() {
+        if (measure != null) {
+            measure.cancel(false);
+            measure = null;
+        }
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+        workers.forEach(Thread::interrupt);
+        workers.clear();
+        target = null;
+        achievedGbPerSecond = 0;
+    }
+
+    public boolean isRunning() {
+        return target != null;
+    }
+
+    public double achievedGbPerSecond() {
+        return achievedGbPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        Target current = target;
+        return current == null ?
+                "no memory bandwidth stress" :
+                String.format("memory bandwidth '%.2f' GB/s of requested %s", achievedGbPerSecond, current);
+    }
+
+    private synchronized void measure() {
+        long traffic = trafficBytes.sum();
+        long nanos = System.nanoTime();
+        achievedGbPerSecond = (traffic - lastTrafficBytes) / GB / ((nanos - lastMeasureNanos) / 1e9);
+        lastTrafficBytes = traffic;
+        lastMeasureNanos = nanos;
+    }
+
+    private void stream(Target target, double bytesPerSecond) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.allocateDirect(target.bufferSize).order(ByteOrder.nativeOrder());
+        } catch (OutOfMemoryError e) {
+            System.out.printf("Memory bandwidth stress fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+            return;
+        }
+        long accessesPerChunk = PACING_CHUNK_BYTES / target.trafficPerAccess();
+        long trafficPerChunk = accessesPerChunk * target.trafficPerAccess();
+        int limit = target.bufferSize - Long.BYTES;
+        int offset = 0;
+        long traffic = 0;
+        long start = System.nanoTime();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (bytesPerSecond > 0 && traffic >= (System.nanoTime() - start) / 1e9 * bytesPerSecond) {
+                    TimeUnit.MICROSECONDS.sleep(100);
+                    continue;
+                }
+                for (long i = 0; i < accessesPerChunk; i++) {
+                    buffer.putLong(offset, buffer.getLong(offset) + 1);
+                    offset += target.stride;
+                    if (offset > limit) {
+                        offset = 0;
+                    }
+                }
+                traffic += trafficPerChunk;
+                trafficBytes.add(trafficPerChunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            NativeMemoryConsumer.free(buffer);
+        }
+    }
+}
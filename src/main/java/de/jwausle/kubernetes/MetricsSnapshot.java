@@ -0,0 +1,112 @@
+package de.jwausle.kubernetes;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Prometheus text exposition of a {@link CollectorRegistry} cached for {@code ttlMillis}. <br/>
+ * Scrapes within the ttl share one rendered snapshot, so collecting and formatting happens at most once per ttl no
+ * matter how many scrapers ask. The text is rendered into a reusable buffer and copied once into the immutable
+ * snapshot, the gzip encoding is created on the first request that accepts it and cached with the snapshot.
+ */
+public class MetricsSnapshot {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int GZIP_BUFFER_SIZE = 8 * 1024;
+
+    private final CollectorRegistry registry;
+    private final long ttlMillis;
+    // only touched while holding the lock of this
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+    private final Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+    private volatile Snapshot snapshot;
+
+    /**
+     * Rendered text and its lazily created gzip encoding.
+     */
+    private static class Snapshot {
+        private final byte[] text;
+        private final long renderedNanos;
+        private volatile byte[] gzip;
+
+        Snapshot(byte[] text, long renderedNanos) {
+            this.text = text;
+            this.renderedNanos = renderedNanos;
+        }
+    }
+
+    /**
+     * @param registry  registry to render
+     * @param ttlMillis time to reuse a rendered snapshot, 0 renders on every request
+     */
+    public MetricsSnapshot(CollectorRegistry registry, long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException(ttlMillis + " must be greather or equal than 0. Its a millis value.");
+        }
+        this.registry = Objects.requireNonNull(registry, "'registry' must not be null.");
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return text exposition format 0.0.4, rendered at most {@code ttlMillis} ago
+     */
+    public byte[] text() throws IOException {
+        return current().text;
+    }
+
+    /**
+     * @return gzip encoded text exposition format 0.0.4, rendered at most {@code ttlMillis} ago
+     */
+    public byte[] gzip() throws IOException {
+        Snapshot current = current();
+        byte[] gzip = current.gzip;
+        if (gzip == null) {
+            synchronized (this) {
+                gzip = current.gzip;
+                if (gzip == null) {
+                    buffer.reset();
+                    try (GZIPOutputStream out = new GZIPOutputStream(buffer, GZIP_BUFFER_SIZE)) {
+                        out.write(current.text);
+                    }
+                    gzip = buffer.toByteArray();
+                    current.gzip = gzip;
+                }
+            }
+        }
+        return gzip;
+    }
+
+    public long ttlMillis() {
+        return ttlMillis;
+    }
+
+    private Snapshot current() throws IOException {
+        Snapshot current = snapshot;
+        if (isFresh(current)) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (isFresh(current)) {
+                return current;
+            }
+            buffer.reset();
+            TextFormat.write004(writer, registry.metricFamilySamples());
+            writer.flush();
+            current = new Snapshot(buffer.toByteArray(), System.nanoTime());
+            snapshot = current;
+            return current;
+        }
+    }
+
+    private boolean isFresh(Snapshot current) {
+        return current != null && System.nanoTime() - current.renderedNanos < ttlMillis * 1_000_000;
+    }
+}
@@ -0,0 +1,242 @@
+package de.jwausle.kubernetes;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consume native memory outside of {@code -Xmx} to test cgroup memory limits and page cache eviction.
+ * <li>direct - direct {@link ByteBuffer}s, every page is touched to make it resident. The JVM caps them at
+ * {@code -XX:MaxDirectMemorySize}, which defaults to {@code -Xmx}, a higher target is capped and reported in the status.</li>
+ * <li>mapped - memory mapped chunks of a temporary file, every page is written to fill the page cache</li>
+ * Targets are bytes with optional {@code k|m|g} suffix or a percentage {@code 30%} of the cgroup memory limit from
+ * {@link CgroupTelemetry}. A controller moves each consumption towards its target every {@code STEP_PERIOD} by at most
+ * {@code MAX_STEP_BYTES}, released chunks are freed immediately by their cleaner.
+ */
+public class NativeMemoryConsumer {
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int PAGE_SIZE = 4096;
+    private static final long MAX_STEP_BYTES = 64L * 1024 * 1024;
+    private static final long STEP_PERIOD_IN_MILLIS = 100;
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+    private static final long MAX_DIRECT_BYTES = maxDirectBytes();
+
+    private final CgroupTelemetry cgroup;
+    private final ScheduledExecutorService controller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "native-memory-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // only touched by the controller thread
+    private final Deque<ByteBuffer> directChunks = new ArrayDeque<>();
+    private final Deque<MappedByteBuffer> mappedChunks = new ArrayDeque<>();
+    private FileChannel mappedFile;
+    private volatile long directTargetBytes = 0;
+    // target as requested, directTargetBytes is capped to it at the direct memory limit
+    private volatile long directRequestedBytes = 0;
+    private volatile long mappedTargetBytes = 0;
+    private volatile long directBytes = 0;
+    private volatile long mappedBytes = 0;
+
+    public NativeMemoryConsumer(CgroupTelemetry cgroup) {
+        this.cgroup = Objects.requireNonNull(cgroup, "'cgroup' must not be null.");
+        controller.scheduleWithFixedDelay(this::control, STEP_PERIOD_IN_MILLIS, STEP_PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Parse bytes {@code 1048576}, {@code 512k}, {@code 256m}, {@code 1g} or a percentage {@code 30%} of the physical
+     * memory.
+     *
+     * @param target bytes or percentage value
+     * @return target in bytes
+     */
+    public static long parseBytes(String target) {
+        return parseBytes(target, physicalMemoryBytes());
+    }
+
+    /**
+     * Parse bytes {@code 1048576}, {@code 512k}, {@code 256m}, {@code 1g} or a percentage {@code 30%} of the memory limit.
+     *
+     * @param target bytes or percentage value
+     * @return target in bytes
+     */
+    public long parseTarget(String target) {
+        return parseBytes(target, memoryLimitBytes());
+    }
+
+    /**
+     * @return cgroup v2/v1 memory limit from {@link CgroupTelemetry} or the physical memory if no lower limit is set
+     */
+    public long memoryLimitBytes() {
+        long limit = cgroup.memoryMaxBytes();
+        long physical = physicalMemoryBytes();
+        return limit > 0 && limit < physical ? limit : physical;
+    }
+
+    private static long parseBytes(String target, long percentOfBytes) {
+        String trimmed = target.trim().toLowerCase();
+        long bytes;
+        if (trimmed.endsWith("%")) {
+            bytes = (long) (Double.valueOf(trimmed.substring(0, trimmed.length() - 1)) / 100 * percentOfBytes);
+        } else if (trimmed.endsWith("k")) {
+            bytes = Long.valueOf(trimmed.substring(0, trimmed.length() - 1)) * 1024;
+        } else if (trimmed.endsWith("m")) {
+            bytes = Long.valueOf(trimmed.substring(0, trimmed.length() - 1)) * 1024 * 1024;
+        } else if (trimmed.endsWith("g")) {
+            bytes = Long.valueOf(trimmed.substring(0, trimmed.length() - 1)) * 1024 * 1024 * 1024;
+        } else {
+            bytes = Long.valueOf(trimmed);
+        }
+        if (bytes < 0) {
+            throw new IllegalArgumentException(target + " must be a positive bytes value or percentage.");
+        }
+        return bytes;
+    }
+
+    /**
+     * Free a direct or mapped buffer immediately instead of waiting for the garbage collector.
+     */
+    static void free(ByteBuffer buffer) {
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    public void direct(long targetBytes) {
+        directRequestedBytes = targetBytes;
+        directTargetBytes = targetBytes;
+        System.out.println(">> set direct memory target =" + targetBytes);
+    }
+
+    public void mapped(long targetBytes) {
+        mappedTargetBytes = targetBytes;
+        System.out.println(">> set mapped memory target =" + targetBytes);
+    }
+
+    public long directBytes() {
+        return directBytes;
+    }
+
+    public long mappedBytes() {
+        return mappedBytes;
+    }
+
+    @Override
+    public String toString() {
+        long requested = directRequestedBytes;
+        long target = directTargetBytes;
+        String capped = requested > target ? String.format(" (capped from '%s' MB by -XX:MaxDirectMemorySize '%s' MB)", requested >> 20, MAX_DIRECT_BYTES >> 20) : "";
+        return String.format("direct '%s' of '%s' MB%s and mapped '%s' of '%s' MB",
+                directBytes >> 20, target >> 20, capped, mappedBytes >> 20, mappedTargetBytes >> 20);
+    }
+
+    private void control() {
+        controlDirect();
+        controlMapped();
+    }
+
+    private void controlDirect() {
+        long directDelta = directTargetBytes - directBytes;
+        try {
+            for (long step = 0; step < MAX_STEP_BYTES && directDelta >= CHUNK_SIZE; step += CHUNK_SIZE, directDelta -= CHUNK_SIZE) {
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                touch(chunk);
+                directChunks.push(chunk);
+                directBytes += CHUNK_SIZE;
+            }
+            for (long step = 0; step < MAX_STEP_BYTES && directDelta < 0 && !directChunks.isEmpty(); step += CHUNK_SIZE, directDelta += CHUNK_SIZE) {
+                free(directChunks.pop());
+                directBytes -= CHUNK_SIZE;
+            }
+        } catch (OutOfMemoryError e) {
+            System.out.printf("Direct memory consumption fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+            directTargetBytes = directBytes;
+        }
+    }
+
+    private void controlMapped() {
+        long mappedDelta = mappedTargetBytes - mappedBytes;
+        try {
+            for (long step = 0; step < MAX_STEP_BYTES && mappedDelta >= CHUNK_SIZE; step += CHUNK_SIZE, mappedDelta -= CHUNK_SIZE) {
+                MappedByteBuffer chunk = mappedFile().map(FileChannel.MapMode.READ_WRITE, mappedBytes, CHUNK_SIZE);
+                touch(chunk);
+                mappedChunks.push(chunk);
+                mappedBytes += CHUNK_SIZE;
+            }
+            for (long step = 0; step < MAX_STEP_BYTES && mappedDelta < 0 && !mappedChunks.isEmpty(); step += CHUNK_SIZE, mappedDelta += CHUNK_SIZE) {
+                free(mappedChunks.pop());
+                mappedBytes -= CHUNK_SIZE;
+                mappedFile().truncate(mappedBytes);
+            }
+        } catch (IOException | OutOfMemoryError e) {
+            System.out.printf("Mapped memory consumption fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+            mappedTargetBytes = mappedBytes;
+        }
+    }
+
+    private FileChannel mappedFile() throws IOException {
+        if (mappedFile == null) {
+            Path file = Files.createTempFile("mapped-memory", ".bin");
+            file.toFile().deleteOnExit();
+            mappedFile = new RandomAccessFile(file.toFile(), "rw").getChannel();
+        }
+        return mappedFile;
+    }
+
+    private static void touch(ByteBuffer chunk) {
+        for (int i = 0; i < chunk.capacity(); i += PAGE_SIZE) {
+            chunk.put(i, (byte) 1);
+        }
+    }
+
+    /**
+     * @return {@code -XX:MaxDirectMemorySize} or {@code -Xmx} if it is not set
+     */
+    private static long maxDirectBytes() {
+        long maxDirectBytes = Long.parseLong(ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class)
+                .getVMOption("MaxDirectMemorySize").getValue());
+        return maxDirectBytes > 0 ? maxDirectBytes : Runtime.getRuntime().maxMemory();
+    }
+
+    // getTotalMemorySize replaces it since java 14, but the source level is 9
+    @SuppressWarnings("deprecation")
+    private static long physicalMemoryBytes() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize();
+    }
+
+    /**
+     * Look up {@code sun.misc.Unsafe.invokeCleaner(ByteBuffer)} reflectively, the only public way to free a direct or
+     * mapped buffer before it is collected. Referencing the internal class in source would warn on every build.
+     */
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package de.jwausle.kubernetes;
+
+import com.codahale.metrics.Meter;
+import org.eclipse.jetty.server.HttpOutput;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response bodies of a requested size served from one preallocated buffer to test network throughput, ingress
+ * buffering and compression costs. <br/>
+ * The buffer holds compressible text lines and grows to the next power of two of the largest requested size up to
+ * {@code maxBytes}, either as direct buffer or memory mapped temporary file. A response is a read-only slice of it:
+ * <li>plain   - the slice is handed to jetty as a whole with {@code Content-Length}, without copying it into the response buffer</li>
+ * <li>chunked - the slice is written and flushed in chunks of {@code chunk} bytes with {@code Transfer-Encoding: chunked}</li>
+ * <li>gzip    - the slice is compressed on the fly if the client accepts gzip, which copies it chunk by chunk to the heap</li>
+ * Every sent body byte is marked on the {@code sent} meter, for gzip the compressed bytes. A grown buffer replaces the previous one, which is freed and
+ * its mapped file deleted once the last response sending from it completed.
+ */
+public class PayloadSource {
+    private static final int MIN_CAPACITY = 64 * 1024;
+    private static final int DEFAULT_CHUNK_BYTES = 64 * 1024;
+    private static final byte[] LINE = "payload line 0000000000 - abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final int LINE_NUMBER_OFFSET = 13;
+    private static final int LINE_NUMBER_DIGITS = 10;
+
+    private final int maxBytes;
+    private final boolean mapped;
+    private final Meter sent;
+    private final ThreadLocal<byte[]> gzipChunk = ThreadLocal.withInitial(() -> new byte[DEFAULT_CHUNK_BYTES]);
+    private volatile Region region = new Region(ByteBuffer.allocate(0), null);
+
+    /**
+     * Requested body of a response.
+     */
+    public static class Payload {
+        private final int size;
+        private final int chunkBytes;
+        private final boolean gzip;
+
+        Payload(int size, int chunkBytes, boolean gzip) {
+            this.size = size;
+            this.chunkBytes = chunkBytes;
+            this.gzip = gzip;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isChunked() {
+            return chunkBytes > 0;
+        }
+
+        public boolean isGzip() {
+            return gzip;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("'%s' bytes%s%s", size, isChunked() ? " in chunks of '" + chunkBytes + "'" : "", gzip ? " gzip" : "");
+        }
+    }
+
+    /**
+     * Buffer shared by the responses sending from it, counted by {@code users} including the source itself.
+     */
+    private static class Region {
+        private final ByteBuffer buffer;
+        private final Path file;
+        private final AtomicInteger users = new AtomicInteger(1);
+
+        Region(ByteBuffer buffer, Path file) {
+            this.buffer = buffer;
+            this.file = file;
+        }
+
+        /**
+         * @return false if the region is already released
+         */
+        boolean retain() {
+            int current;
+            do {
+                current = users.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!users.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            if (users.decrementAndGet() > 0 || !buffer.isDirect()) {
+                return;
+            }
+            NativeMemoryConsumer.free(buffer);
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.out.printf("Deleting payload file fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param maxBytes largest payload
+     * @param mapped   true to back the payloads by a memory mapped temporary file, false by a direct buffer
+     * @param sent     meter of the sent body bytes
+     */
+    public PayloadSource(long maxBytes, boolean mapped, Meter sent) {
+        if (maxBytes <= 0 || maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(maxBytes + " must be between [1 - " + Integer.MAX_VALUE + "]. Its a payload size.");
+        }
+        this.maxBytes = (int) maxBytes;
+        this.mapped = mapped;
+        this.sent = sent;
+    }
+
+    /**
+     * Parse {@code size=BYTES}, {@code chunk=BYTES} and {@code gzip=BOOL} with bytes like {@code 512}, {@code 64k} or {@code 2m}.
+     *
+     * @param param          lookup of a request parameter by name
+     * @param acceptEncoding {@code Accept-Encoding} header of the request or null
+     * @return payload or empty if {@code size} is not set
+     */
+    public Optional<Payload> parse(Function<String, Optional<String>> param, String acceptEncoding) {
+        return param.apply("size").map(NativeMemoryConsumer::parseBytes).map(size -> {
+            if (size > maxBytes) {
+                throw new IllegalArgumentException(size + " must be lower or equal than " + maxBytes + ". Its the max payload size.");
+            }
+            return new Payload(size.intValue(),
+                    (int) Math.min(Integer.MAX_VALUE, param.apply("chunk").map(NativeMemoryConsumer::parseBytes).orElse(0L)),
+                    param.apply("gzip").map(Boolean::valueOf).orElse(false) && acceptEncoding != null && acceptEncoding.contains("gzip"));
+        });
+    }
+
+    /**
+     * Set the headers of the payload, must be called before the response is committed.
+     */
+    public void prepare(Payload payload, HttpServletResponse response) {
+        response.setContentType("application/octet-stream");
+        if (payload.gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+            response.setHeader("Vary", "Accept-Encoding");
+        } else if (!payload.isChunked()) {
+            response.setContentLengthLong(payload.size);
+        }
+    }
+
+    /**
+     * Write the body of a {@link #prepare(Payload, HttpServletResponse) prepared} payload, blocking until it is sent.
+     */
+    public void send(Payload payload, HttpServletResponse response) throws IOException {
+        Region current = retain(payload.size);
+        long sentBytes = payload.size;
+        try {
+            ByteBuffer body = current.buffer.asReadOnlyBuffer();
+            body.limit(payload.size);
+            ServletOutputStream out = response.getOutputStream();
+            if (payload.gzip) {
+                sentBytes = sendGzip(body, payload.isChunked() ? payload.chunkBytes : DEFAULT_CHUNK_BYTES, out);
+            } else if (payload.isChunked()) {
+                sendChunked(body, payload.chunkBytes, out);
+            } else if (out instanceof HttpOutput) {
+                ((HttpOutput) out).sendContent(body);
+            } else {
+                sendChunked(body, DEFAULT_CHUNK_BYTES, out);
+            }
+        } finally {
+            current.release();
+        }
+        sent.mark(sentBytes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("max '%s' bytes from %s buffer of '%s' bytes", maxBytes, mapped ? "mapped" : "direct", region.buffer.capacity());
+    }
+
+    private void sendChunked(ByteBuffer body, int chunkBytes, ServletOutputStream out) throws IOException {
+        while (body.hasRemaining()) {
+            ByteBuffer chunk = body.slice();
+            chunk.limit(Math.min(chunkBytes, chunk.remaining()));
+            body.position(body.position() + chunk.limit());
+            if (out instanceof HttpOutput) {
+                ((HttpOutput) out).write(chunk);
+            } else {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                out.write(bytes);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * @return compressed bytes written
+     */
+    private long sendGzip(ByteBuffer body, int chunkBytes, ServletOutputStream out) throws IOException {
+        byte[] chunk = gzipChunk.get();
+        long[] written = {0};
+        // finish the gzip stream, but keep the response open for the container
+        OutputStream unclosed = new FilterOutputStream(out) {
+            @Override
+            public void write(int value) throws IOException {
+                out.write(value);
+                written[0]++;
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+                written[0] += length;
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try (GZIPOutputStream gzip = new GZIPOutputStream(unclosed, chunk.length)) {
+            while (body.hasRemaining()) {
+                int length = Math.min(Math.min(chunk.length, chunkBytes), body.remaining());
+                body.get(chunk, 0, length);
+                gzip.write(chunk, 0, length);
+            }
+        }
+        return written[0];
+    }
+
+    /**
+     * @return region of at least {@code size} bytes, retained until it is released by the caller
+     */
+    private Region retain(int size) throws IOException {
+        while (true) {
+            Region current = region;
+            if (current.buffer.capacity() < size) {
+                current = grow(size);
+            }
+            if (current.retain()) {
+                return current;
+            }
+        }
+    }
+
+    private synchronized Region grow(int size) throws IOException {
+        Region previous = region;
+        if (previous.buffer.capacity() >= size) {
+            return previous;
+        }
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(size));
+        capacity = capacity < size ? (int) Math.min(maxBytes, 2L * capacity) : capacity;
+        Path file = mapped ? Files.createTempFile("payload", ".bin") : null;
+        ByteBuffer grown = mapped ? map(file, capacity) : ByteBuffer.allocateDirect(capacity);
+        fill(grown);
+        region = new Region(grown, file);
+        // in-flight responses keep the previous region until they completed
+        previous.release();
+        System.out.println(">> set payload buffer to " + this);
+        return region;
+    }
+
+    private static ByteBuffer map(Path file, int capacity) throws IOException {
+        file.toFile().deleteOnExit();
+        try (RandomAccessFile random = new RandomAccessFile(file.toFile(), "rw")) {
+            random.setLength(capacity);
+            return random.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    private static void fill(ByteBuffer buffer) {
+        byte[] line = LINE.clone();
+        long number = 0;
+        while (buffer.hasRemaining()) {
+            long digits = number++;
+            for (int i = LINE_NUMBER_OFFSET + LINE_NUMBER_DIGITS - 1; i >= LINE_NUMBER_OFFSET; i--) {
+                line[i] = (byte) ('0' + digits % 10);
+                digits /= 10;
+            }
+            buffer.put(line, 0, Math.min(line.length, buffer.remaining()));
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,300 @@
+package de.jwausle.kubernetes;
+
+import com.codahale.metrics.Timer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal http listener on a dedicated port to answer kubelet probes isolated from the application thread pool. <br/>
+ * A single NIO event loop accepts, reads the request line, asks the {@link Probe} of the requested path and writes its
+ * {@link Answer} with {@code Connection: close}. Constant answers are encoded to a complete http response once and
+ * reused, read buffers are pooled, so a probe costs no servlet stack and no thread hand-off. Each path records its
+ * rate and latency from the complete request to the written response into its {@link Timer}.
+ */
+public class ProbeListener {
+    private static final int BUFFER_SIZE = 2048;
+    private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final Answer NOT_FOUND = new Answer(404, "not found".getBytes(StandardCharsets.US_ASCII));
+    private static final Answer BAD_REQUEST = new Answer(400, "bad request".getBytes(StandardCharsets.US_ASCII));
+
+    private final int port;
+    private final Map<String, Route> routes = new LinkedHashMap<>();
+    // only touched by the event loop thread
+    private final Deque<ByteBuffer> buffers = new ArrayDeque<>();
+    private Selector selector;
+
+    /**
+     * Probe state of one path.
+     */
+    @FunctionalInterface
+    public interface Probe {
+        Answer probe();
+    }
+
+    /**
+     * Status and body of a probe request with its lazily encoded http response.
+     */
+    public static class Answer {
+        private final int status;
+        private final byte[] body;
+        private volatile byte[] http;
+
+        public Answer(int status, byte[] body) {
+            this.status = status;
+            this.body = Objects.requireNonNull(body, "'body' must not be null.");
+        }
+
+        /**
+         * Reuse the previous answer while the body is the same cached array to keep its encoded http response.
+         */
+        public static Answer reuse(Answer previous, int status, byte[] body) {
+            return previous != null && previous.status == status && previous.body == body ? previous : new Answer(status, body);
+        }
+
+        public int status() {
+            return status;
+        }
+
+        public byte[] body() {
+            return body;
+        }
+
+        byte[] http() {
+            byte[] encoded = http;
+            if (encoded == null) {
+                byte[] header = String.format("HTTP/1.1 %s %s\r\nContent-Type: text/html;charset=utf-8\r\nContent-Length: %s\r\nConnection: close\r\n\r\n",
+                        status, reason(status), body.length).getBytes(StandardCharsets.US_ASCII);
+                encoded = new byte[header.length + body.length];
+                System.arraycopy(header, 0, encoded, 0, header.length);
+                System.arraycopy(body, 0, encoded, header.length, body.length);
+                http = encoded;
+            }
+            return encoded;
+        }
+
+        private static String reason(int status) {
+            switch (status) {
+                case 200:
+                    return "OK";
+                case 400:
+                    return "Bad Request";
+                case 404:
+                    return "Not Found";
+                case 410:
+                    return "Gone";
+                case 423:
+                    return "Locked";
+                case 503:
+                    return "Service Unavailable";
+                default:
+                    return "Status";
+            }
+        }
+    }
+
+    /**
+     * Probe of a path with its path bytes to match the request line without decoding.
+     */
+    private static class Route {
+        private final byte[] path;
+        private final Probe probe;
+        private final Timer timer;
+
+        Route(String path, Probe probe, Timer timer) {
+            this.path = path.getBytes(StandardCharsets.US_ASCII);
+            this.probe = probe;
+            this.timer = timer;
+        }
+    }
+
+    /**
+     * Connection state between the reads of a request and the writes of its response.
+     */
+    private static class Exchange {
+        private final ByteBuffer request;
+        private ByteBuffer response;
+
+        Exchange(ByteBuffer request) {
+            this.request = request;
+        }
+    }
+
+    public ProbeListener(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Answer requests of {@code path} by {@code probe} and record them into {@code timer}.
+     */
+    public ProbeListener route(String path, Probe probe, Timer timer) {
+        routes.put(path, new Route(path, Objects.requireNonNull(probe, "'probe' must not be null."), Objects.requireNonNull(timer, "'timer' must not be null.")));
+        return this;
+    }
+
+    /**
+     * Bind the port and start the event loop thread.
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        Thread loop = new Thread(this::loop, "probe-listener");
+        loop.setDaemon(true);
+        loop.start();
+        System.out.println(">> start probe listener on port=" + port + " for " + routes.keySet());
+    }
+
+    private void loop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.printf("Probe listener fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            } else if (key.isAcceptable()) {
+                SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+                if (channel != null) {
+                    channel.configureBlocking(false);
+                    channel.register(selector, SelectionKey.OP_READ, new Exchange(buffer()));
+                }
+            } else if (key.isReadable()) {
+                read(key);
+            } else if (key.isWritable()) {
+                write(key);
+            }
+        } catch (IOException e) {
+            if (key.channel() instanceof ServerSocketChannel) {
+                System.out.printf("Probe accept fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+            } else {
+                close(key);
+            }
+        } catch (RuntimeException e) {
+            // a cancelled key or a failing probe must not end the only listener thread
+            System.out.printf("Probe exchange fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+            if (!(key.channel() instanceof ServerSocketChannel)) {
+                close(key);
+            }
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Exchange exchange = (Exchange) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(exchange.request) < 0) {
+            close(key);
+            return;
+        }
+        if (!endsWith(exchange.request, HEADER_END)) {
+            if (!exchange.request.hasRemaining()) {
+                respond(key, exchange, BAD_REQUEST.http());
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        Route route = route(exchange.request);
+        Answer answer = route == null ? NOT_FOUND : route.probe.probe();
+        respond(key, exchange, answer.http());
+        if (route != null) {
+            route.timer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void respond(SelectionKey key, Exchange exchange, byte[] http) throws IOException {
+        exchange.response = ByteBuffer.wrap(http);
+        key.interestOps(SelectionKey.OP_WRITE);
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Exchange exchange = (Exchange) key.attachment();
+        ((SocketChannel) key.channel()).write(exchange.response);
+        if (!exchange.response.hasRemaining()) {
+            close(key);
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        Exchange exchange = (Exchange) key.attachment();
+        if (exchange != null) {
+            exchange.request.clear();
+            buffers.push(exchange.request);
+            key.attach(null);
+        }
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            System.out.printf("Probe connection close fail with %s because - %s\n", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    private ByteBuffer buffer() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Match the path of the request line {@code GET /path?query HTTP/1.1} against the routes.
+     */
+    private Route route(ByteBuffer request) {
+        byte[] bytes = request.array();
+        int start = 0;
+        while (start < request.position() && bytes[start] != ' ') {
+            start++;
+        }
+        start++;
+        int end = start;
+        while (end < request.position() && bytes[end] != ' ' && bytes[end] != '?') {
+            end++;
+        }
+        for (Route route : routes.values()) {
+            if (route.path.length == end - start && regionMatches(bytes, start, route.path)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private static boolean regionMatches(byte[] bytes, int offset, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean endsWith(ByteBuffer buffer, byte[] suffix) {
+        int position = buffer.position();
+        return position >= suffix.length && regionMatches(buffer.array(), position - suffix.length, suffix);
+    }
+}
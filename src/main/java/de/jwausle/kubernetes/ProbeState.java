@@ -0,0 +1,227 @@
+package de.jwausle.kubernetes;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lock-free state machine of a probe. <br/>
+ * The state is an immutable {@link State} in an {@link AtomicReference}, every transition is a compare-and-set, so
+ * concurrent probes and switches never lose an update. A probe while down counts its request and heals after
+ * {@code healingCount} requests, if set. Time-based transitions are scheduled on the shared scheduler and carry the
+ * generation of the state they were scheduled for, so a later switch cancels them implicitly:
+ * <li>up                 - probe succeeds</li>
+ * <li>down(COUNT)        - probe fails, heals after COUNT probes (0: on the next probe, {@link #NEVER}: never)</li>
+ * <li>downFor(PERIOD)    - probe fails, heals after PERIOD</li>
+ * <li>flap(PERIOD, JITTER) - probe toggles every half PERIOD, randomized by +/- JITTER of it</li>
+ */
+public class ProbeState {
+    /**
+     * Healing count of a state, which does not heal by probes.
+     */
+    public static final int NEVER = -1;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.UP);
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Immutable state of a probe.
+     */
+    public static class State {
+        private static final State UP = new State(true, 0, NEVER, 0, null, null, 0);
+
+        private final boolean up;
+        private final int index;
+        private final int healingCount;
+        private final long generation;
+        private final Duration healingPeriod;
+        private final Duration flapPeriod;
+        private final double jitter;
+
+        private State(boolean up, int index, int healingCount, long generation, Duration healingPeriod, Duration flapPeriod, double jitter) {
+            this.up = up;
+            this.index = index;
+            this.healingCount = healingCount;
+            this.generation = generation;
+            this.healingPeriod = healingPeriod;
+            this.flapPeriod = flapPeriod;
+            this.jitter = jitter;
+        }
+
+        public boolean isUp() {
+            return up;
+        }
+
+        /**
+         * @return probes since the switch to down
+         */
+        public int index() {
+            return index;
+        }
+
+        /**
+         * @return probes until healing or {@link #NEVER} if the state does not heal by probes
+         */
+        public int healingCount() {
+            return healingCount;
+        }
+
+        public boolean isFlapping() {
+            return flapPeriod != null;
+        }
+
+        private State next(boolean up, int healingCount, Duration healingPeriod, Duration flapPeriod, double jitter) {
+            return new State(up, 0, healingCount, generation + 1, healingPeriod, flapPeriod, jitter);
+        }
+
+        private State probed() {
+            if (up) {
+                return this;
+            } else if (healingCount != NEVER && index >= healingCount) {
+                return next(true, NEVER, null, null, 0);
+            }
+            return new State(false, index + 1, healingCount, generation, healingPeriod, flapPeriod, jitter);
+        }
+
+        @Override
+        public String toString() {
+            return (up ? "up" : "down")
+                    + (healingCount != NEVER ? " healing after '" + healingCount + "' probes" : "")
+                    + (healingPeriod != null ? " healing after '" + healingPeriod.toMillis() + "' millis" : "")
+                    + (flapPeriod != null ? String.format(" flapping every '%s' millis with jitter '%.2f'", flapPeriod.toMillis(), jitter) : "");
+        }
+    }
+
+    public ProbeState(ScheduledExecutorService scheduler) {
+        this.scheduler = Objects.requireNonNull(scheduler, "'scheduler' must not be null.");
+    }
+
+    public State get() {
+        return state.get();
+    }
+
+    /**
+     * Count a probe request, which heals the state after {@code healingCount} probes.
+     *
+     * @return state observed by this probe
+     */
+    public State probe() {
+        State current = state.get();
+        if (current.up) {
+            return current;
+        }
+        State next;
+        do {
+            current = state.get();
+            next = current.probed();
+        } while (next != current && !state.compareAndSet(current, next));
+        return next;
+    }
+
+    public State up() {
+        return state.updateAndGet(current -> current.next(true, NEVER, null, null, 0));
+    }
+
+    /**
+     * @param healingCount probes until healing, 0 heals on the next probe, {@link #NEVER} never heals by probes
+     */
+    public State down(int healingCount) {
+        validate(healingCount);
+        return state.updateAndGet(current -> current.next(false, healingCount, null, null, 0));
+    }
+
+    /**
+     * Switch to down only if up, so a concurrent switch to down is not overwritten.
+     *
+     * @param healingCount probes until healing, 0 heals on the next probe, {@link #NEVER} never heals by probes
+     * @return new state or null if the state is already down
+     */
+    public State downIfUp(int healingCount) {
+        validate(healingCount);
+        State current;
+        State next;
+        do {
+            current = state.get();
+            if (!current.up) {
+                return null;
+            }
+            next = current.next(false, healingCount, null, null, 0);
+        } while (!state.compareAndSet(current, next));
+        return next;
+    }
+
+    /**
+     * @param period time until healing
+     */
+    public State downFor(Duration period) {
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException(period + " must be greather than 0. Its a down period.");
+        }
+        State down = state.updateAndGet(current -> current.next(false, NEVER, period, null, 0));
+        schedule(period, () -> transition(down, current -> current.next(true, NEVER, null, null, 0)));
+        return down;
+    }
+
+    /**
+     * @param period time of one down and up cycle
+     * @param jitter randomization of each half period between [0 - 1]
+     */
+    public State flap(Duration period, double jitter) {
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException(period + " must be greather than 0. Its a flap period.");
+        } else if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException(jitter + " must be between [0 - 1]. Its a jitter ratio.");
+        }
+        State down = state.updateAndGet(current -> current.next(false, NEVER, null, period, jitter));
+        scheduleToggle(down);
+        return down;
+    }
+
+    @Override
+    public String toString() {
+        return state.get().toString();
+    }
+
+    private static void validate(int healingCount) {
+        if (healingCount < 0 && healingCount != NEVER) {
+            throw new IllegalArgumentException(healingCount + " must be greather or equal than 0. Its a probe count.");
+        }
+    }
+
+    private void scheduleToggle(State flapping) {
+        long halfPeriod = flapping.flapPeriod.toMillis() / 2;
+        long delay = (long) (halfPeriod * (1 + flapping.jitter * ThreadLocalRandom.current().nextDouble(-1, 1)));
+        schedule(Duration.ofMillis(Math.max(1, delay)), () -> {
+            State toggled = transition(flapping, current -> current.next(!current.up, NEVER, null, current.flapPeriod, current.jitter));
+            if (toggled != null) {
+                scheduleToggle(toggled);
+            }
+        });
+    }
+
+    private void schedule(Duration delay, Runnable transition) {
+        scheduler.schedule(transition, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Apply the transition only if the state is still in the generation it was scheduled for.
+     *
+     * @return new state or null if the state moved on
+     */
+    private State transition(State expected, UnaryOperator<State> transition) {
+        State current;
+        State next;
+        do {
+            current = state.get();
+            if (current.generation != expected.generation) {
+                return null;
+            }
+            next = transition.apply(current);
+        } while (!state.compareAndSet(current, next));
+        return next;
+    }
+}
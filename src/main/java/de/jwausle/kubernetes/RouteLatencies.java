@@ -0,0 +1,192 @@
+package de.jwausle.kubernetes;
+
+import io.prometheus.client.Collector;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms per route and status recorded by spark {@code before} and {@code afterAfter} filters. <br/>
+ * Each route and status owns a HdrHistogram {@link Recorder}, so recording is wait-free and allocation free on the
+ * request threads. Every {@code SLICE_PERIOD} the recorders are sampled into a ring of {@code WINDOW_SLICES} interval
+ * histograms and the quantiles are computed over the whole window, a scrape only reads the computed values. Suspended
+ * requests are recorded when their async context completes. Requests answered with {@code 404} share the route
+ * {@code unmatched} to keep the label cardinality bounded.
+ * <li>http_request_latency_seconds{route,status,quantile}  - p50, p99 and p99.9 over the window with count and sum</li>
+ * <li>http_request_latency_max_seconds{route,status}        - max over the window</li>
+ * <li>http_requests_in_flight                               - requests started but not completed</li>
+ */
+public class RouteLatencies extends Collector {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final int WINDOW_SLICES = 6;
+    private static final long SLICE_PERIOD_IN_SECONDS = 10;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final int MAX_STATUS = 600;
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final String UNMATCHED = "unmatched";
+    private static final double MICROS_PER_SECOND = 1e6;
+
+    private final Map<String, AtomicReferenceArray<Latency>> routes = new ConcurrentHashMap<>();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final ThreadLocal<long[]> startNanos = ThreadLocal.withInitial(() -> new long[1]);
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "route-latency-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Latency of one route and status.
+     */
+    private static class Latency {
+        private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumMicros = new LongAdder();
+        // only touched by the sampler thread
+        private final Histogram[] slices = new Histogram[WINDOW_SLICES];
+        private final Histogram window = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private int slice = 0;
+        // quantiles in micros followed by the max
+        private volatile long[] values = new long[QUANTILES.length + 1];
+
+        Latency() {
+            for (int i = 0; i < slices.length; i++) {
+                slices[i] = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+            }
+        }
+
+        void record(long micros) {
+            recorder.recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+            count.increment();
+            sumMicros.add(micros);
+        }
+
+        void sample() {
+            slice = (slice + 1) % slices.length;
+            recorder.getIntervalHistogramInto(slices[slice]);
+            window.reset();
+            for (Histogram histogram : slices) {
+                window.add(histogram);
+            }
+            long[] sampled = new long[QUANTILES.length + 1];
+            for (int i = 0; i < QUANTILES.length; i++) {
+                sampled[i] = window.getValueAtPercentile(QUANTILES[i] * 100);
+            }
+            sampled[QUANTILES.length] = window.getMaxValue();
+            values = sampled;
+        }
+    }
+
+    public RouteLatencies() {
+        sampler.scheduleAtFixedRate(this::sample, SLICE_PERIOD_IN_SECONDS, SLICE_PERIOD_IN_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Spark {@code before} filter to mark the request start.
+     */
+    public void before(Request request, Response response) {
+        startNanos.get()[0] = System.nanoTime();
+        inFlight.increment();
+    }
+
+    /**
+     * Spark {@code afterAfter} filter to record the request, suspended requests are recorded on completion.
+     */
+    public void after(Request request, Response response) {
+        long start = startNanos.get()[0];
+        String route = request.pathInfo();
+        HttpServletRequest raw = request.raw();
+        if (raw.isAsyncStarted()) {
+            raw.getAsyncContext().addListener(new CompletionListener(() -> record(route, response.raw().getStatus(), start)));
+        } else {
+            record(route, response.raw().getStatus(), start);
+        }
+    }
+
+    public long inFlight() {
+        return inFlight.sum();
+    }
+
+    /**
+     * @return requests completed since the start
+     */
+    public long completed() {
+        return completed.sum();
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> latencies = new ArrayList<>();
+        List<MetricFamilySamples.Sample> maxima = new ArrayList<>();
+        routes.forEach((route, statuses) -> {
+            for (int status = 0; status < statuses.length(); status++) {
+                Latency latency = statuses.get(status);
+                if (latency == null) {
+                    continue;
+                }
+                List<String> labels = Arrays.asList(route, Integer.toString(status));
+                long[] values = latency.values;
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    latencies.add(new MetricFamilySamples.Sample("http_request_latency_seconds", Arrays.asList("route", "status", "quantile"),
+                            Arrays.asList(route, Integer.toString(status), Double.toString(QUANTILES[i])), values[i] / MICROS_PER_SECOND));
+                }
+                latencies.add(new MetricFamilySamples.Sample("http_request_latency_seconds_count", Arrays.asList("route", "status"), labels, latency.count.sum()));
+                latencies.add(new MetricFamilySamples.Sample("http_request_latency_seconds_sum", Arrays.asList("route", "status"), labels, latency.sumMicros.sum() / MICROS_PER_SECOND));
+                maxima.add(new MetricFamilySamples.Sample("http_request_latency_max_seconds", Arrays.asList("route", "status"), labels, values[QUANTILES.length] / MICROS_PER_SECOND));
+            }
+        });
+        String window = " over the last " + WINDOW_SLICES * SLICE_PERIOD_IN_SECONDS + " seconds";
+        return Arrays.asList(
+                new MetricFamilySamples("http_request_latency_seconds", Type.SUMMARY, "Request latency per route and status" + window + ".", latencies),
+                new MetricFamilySamples("http_request_latency_max_seconds", Type.GAUGE, "Max request latency per route and status" + window + ".", maxima),
+                new MetricFamilySamples("http_requests_in_flight", Type.GAUGE, "Requests started but not completed.",
+                        Collections.singletonList(new MetricFamilySamples.Sample("http_requests_in_flight", Collections.emptyList(), Collections.emptyList(), inFlight.sum()))));
+    }
+
+    private void record(String route, int status, long startNanos) {
+        inFlight.decrement();
+        completed.increment();
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        latency(status == STATUS_NOT_FOUND || route == null ? UNMATCHED : route, Math.max(0, Math.min(status, MAX_STATUS - 1))).record(micros);
+    }
+
+    private Latency latency(String route, int status) {
+        AtomicReferenceArray<Latency> statuses = routes.get(route);
+        if (statuses == null) {
+            statuses = routes.computeIfAbsent(route, __ -> new AtomicReferenceArray<>(MAX_STATUS));
+        }
+        Latency latency = statuses.get(status);
+        if (latency == null) {
+            statuses.compareAndSet(status, null, new Latency());
+            latency = statuses.get(status);
+        }
+        return latency;
+    }
+
+    private void sample() {
+        routes.values().forEach(statuses -> {
+            for (int status = 0; status < statuses.length(); status++) {
+                Latency latency = statuses.get(status);
+                if (latency != null) {
+                    latency.sample();
+                }
+            }
+        });
+    }
+}
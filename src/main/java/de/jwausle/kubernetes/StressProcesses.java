@@ -0,0 +1,167 @@
+package de.jwausle.kubernetes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Registry of the process trees spawned by {@link SystemStresser}. <br/>
+ * Spawned processes are registered with their children and removed asynchronously on exit, so status queries never
+ * scan the process table of the node. A background sampler refreshes the children from
+ * {@code /proc/[pid]/task/[pid]/children}, reads the cpu time of each process from {@link ProcessHandle.Info}, which
+ * converts the clock ticks of the system, and the resident memory in kB from {@code VmRSS} of {@code /proc/[pid]/status}.
+ * A newly registered process counts from its second sample on.
+ */
+public class StressProcesses {
+    private static final long SAMPLE_PERIOD_IN_MILLIS = 1000;
+    private static final String VM_RSS = "VmRSS:";
+
+    private final Map<Long, Sample> processes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stress-process-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile double cpuCores = 0;
+    private volatile long rssBytes = 0;
+    private long lastSampleNanos = System.nanoTime();
+
+    /**
+     * Sampled state of one registered process.
+     */
+    private static class Sample {
+        private final ProcessHandle process;
+        private volatile long cpuNanos = -1;
+        private volatile long rssBytes = 0;
+
+        Sample(ProcessHandle process) {
+            this.process = process;
+        }
+    }
+
+    public StressProcesses() {
+        sampler.scheduleAtFixedRate(this::sample, SAMPLE_PERIOD_IN_MILLIS, SAMPLE_PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Register a spawned process and track its exit.
+     */
+    public void register(ProcessHandle process) {
+        if (processes.putIfAbsent(process.pid(), new Sample(process)) == null) {
+            process.onExit().thenRun(() -> processes.remove(process.pid()));
+            children(process).forEach(this::register);
+        }
+    }
+
+    /**
+     * Kill all registered processes and their descendants, also the ones not sampled yet. The descendants of all
+     * processes are taken before the first kill and killed before their ancestors.
+     */
+    public void killAll() {
+        List<ProcessHandle> registered = processes.values().stream()
+                .map(sample -> sample.process)
+                .collect(Collectors.toList());
+        Map<Long, List<ProcessHandle>> descendants = registered.stream()
+                .collect(Collectors.toMap(ProcessHandle::pid, process -> process.descendants().collect(Collectors.toList()), (left, right) -> left));
+        registered.forEach(process -> {
+            descendants.get(process.pid()).forEach(StressProcesses::safeKill);
+            safeKill(process);
+        });
+    }
+
+    public int count() {
+        return processes.size();
+    }
+
+    /**
+     * @return cpu usage of all registered processes in cores over the last sample period
+     */
+    public double cpuCores() {
+        return cpuCores;
+    }
+
+    /**
+     * @return resident memory of all registered processes
+     */
+    public long rssBytes() {
+        return rssBytes;
+    }
+
+    @Override
+    public String toString() {
+        return processes.isEmpty() ?
+                "no 'stess' command started" :
+                String.format("%s 'stress' processes started with cpu '%.2f' cores and rss '%s' MB [%s]", processes.size(), cpuCores, rssBytes >> 20,
+                        processes.entrySet().stream()
+                                .map(process -> process.getKey() + ":" + (process.getValue().rssBytes >> 20) + "MB")
+                                .collect(Collectors.joining(" ")));
+    }
+
+    private void sample() {
+        processes.values().forEach(sample -> children(sample.process).forEach(this::register));
+        long cpuNanos = 0;
+        long rss = 0;
+        for (Sample sample : processes.values()) {
+            long lastCpuNanos = sample.cpuNanos;
+            sampleProc(sample);
+            cpuNanos += lastCpuNanos < 0 ? 0 : sample.cpuNanos - lastCpuNanos;
+            rss += sample.rssBytes;
+        }
+        long nanos = System.nanoTime();
+        cpuCores = cpuNanos / (double) (nanos - lastSampleNanos);
+        rssBytes = rss;
+        lastSampleNanos = nanos;
+    }
+
+    private static void sampleProc(Sample sample) {
+        sample.cpuNanos = sample.process.info().totalCpuDuration()
+                .map(Duration::toNanos)
+                .orElse(Math.max(0, sample.cpuNanos));
+        Path status = Paths.get("/proc", Long.toString(sample.process.pid()), "status");
+        try {
+            Files.readAllLines(status).stream()
+                    .filter(line -> line.startsWith(VM_RSS))
+                    .findFirst()
+                    .map(line -> line.substring(VM_RSS.length()).trim().split(" ")[0])
+                    .ifPresent(kb -> sample.rssBytes = Long.valueOf(kb) * 1024);
+        } catch (IOException | RuntimeException e) {
+            // exited meanwhile, keep the last value until the exit is tracked
+        }
+    }
+
+    private static Stream<ProcessHandle> children(ProcessHandle process) {
+        Path children = Paths.get("/proc", Long.toString(process.pid()), "task", Long.toString(process.pid()), "children");
+        try {
+            String pids = new String(Files.readAllBytes(children)).trim();
+            return pids.isEmpty() ?
+                    Stream.empty() :
+                    Arrays.stream(pids.split(" "))
+                            .map(Long::valueOf)
+                            .map(ProcessHandle::of)
+                            .filter(Optional::isPresent)
+                            .map(Optional::get);
+        } catch (IOException | RuntimeException e) {
+            return process.isAlive() ? process.children() : Stream.empty();
+        }
+    }
+
+    private static void safeKill(ProcessHandle processHandle) {
+        try {
+            processHandle.destroyForcibly();
+        } catch (Exception e) {
+            System.out.println(">> error during killing of process " + processHandle.pid());
+        }
+    }
+}
@@ -1,57 +1,114 @@
 package de.jwausle.kubernetes;
 
-import org.jetbrains.annotations.NotNull;
-
 import java.io.IOException;
 import java.time.Duration;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Stress the system with the in-process {@link CpuStresser} for cpu load, the in-process {@link IoStresser} for disk
+ * load and {@link MemoryBandwidthStresser} for memory bus load if their targets are given and the linux {@code stress}
+ * command for the remaining {@code --io --vm --hdd} workers. Spawned commands are tracked by {@link StressProcesses}.
+ * The status includes the cpu throttling and pressure of the container from {@link CgroupTelemetry}.
+ */
 public class SystemStresser {
     private static final String STRESS_COMMAND = "stress";
     private static final int INITIAL_STRESS_COUNT = 1;
+    private static final String DEFAULT_CPU_TARGET = "100%";
 
+    private final CpuStresser cpu;
+    private final IoStresser io = new IoStresser();
+    private final MemoryBandwidthStresser bandwidth = new MemoryBandwidthStresser();
+    private final StressProcesses processes = new StressProcesses();
+    private final CgroupTelemetry cgroup;
     private Optional<ProcessHandle> process = Optional.empty();
     private int stressCount = INITIAL_STRESS_COUNT;
 
+    public SystemStresser(CgroupTelemetry cgroup) {
+        this.cgroup = cgroup;
+        this.cpu = new CpuStresser(cgroup);
+    }
+
     public synchronized void stress(Optional<Duration> stressPeriod) {
+        stress(stressPeriod, Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    /**
+     * Stress the system for the optional period.
+     *
+     * @param stressPeriod optional period, default forever
+     * @param cpuTarget    optional cpu target in cores {@code 1.5} or percentage of the cpu quota {@code 70%}, default 100%
+     * @param ioTarget     optional disk I/O target, default {@code stress --io --hdd} workers
+     * @param vmTarget     optional memory bandwidth target, default {@code stress --vm} workers
+     */
+    public synchronized void stress(Optional<Duration> stressPeriod, Optional<String> cpuTarget,
+                                    Optional<IoStresser.Target> ioTarget, Optional<MemoryBandwidthStresser.Target> vmTarget) {
         int nextStressCount = stressCount;
+        double targetCores = cpu.parseCores(cpuTarget.orElse(DEFAULT_CPU_TARGET));
+        unstress();
+        cpu.start(targetCores, stressPeriod);
+        ioTarget.ifPresent(target -> io.start(target, stressPeriod));
+        vmTarget.ifPresent(target -> bandwidth.start(target, stressPeriod));
+        if (ioTarget.isPresent() && vmTarget.isPresent()) {
+            return;
+        }
         try {
-            unstress();
-            String cmd = cmd(stressPeriod, nextStressCount++);
+            String cmd = cmd(stressPeriod, nextStressCount++, !ioTarget.isPresent(), !vmTarget.isPresent());
             process = Optional.of(Runtime.getRuntime().exec(cmd).toHandle());
+            process.ifPresent(processes::register);
             stressCount = nextStressCount;
         } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
+            System.out.printf("Starting '%s' command fail with %s because - %s\n", STRESS_COMMAND, e.getClass().getSimpleName(), e.getMessage());
         }
     }
 
-    public void unstress() {
+    public synchronized void unstress() {
+        cpu.stop();
+        io.stop();
+        bandwidth.stop();
         process.ifPresent(process -> {
-            String cmd = toString();
+            String cmd = processes.toString();
             stressCount = INITIAL_STRESS_COUNT;
-            process.children().forEach(SystemStresser::safeKill);
-            safeKill(process);
+            processes.killAll();
             System.out.println(">> kill stress pid '" + process.pid() + "' cmd '" + cmd + "'");
         });
-        allStressProcessHandle().forEach(SystemStresser::safeKill);
+        process = Optional.empty();
+    }
+
+    /**
+     * @return true while any stresser or {@code stress} process runs, also false after their period ended
+     */
+    public boolean isStressing() {
+        return cpu.isRunning() || io.isRunning() || bandwidth.isRunning() || processes.count() > 0;
+    }
+
+    public CpuStresser cpu() {
+        return cpu;
+    }
+
+    public IoStresser io() {
+        return io;
+    }
+
+    public MemoryBandwidthStresser bandwidth() {
+        return bandwidth;
+    }
+
+    public StressProcesses processes() {
+        return processes;
     }
 
     @Override
     public String toString() {
-        long stressProcessCount = allStressProcessHandle().count();
-        return stressProcessCount == 0 ?
-                "no 'stess' command started" :
-                String.format("%s 'stress' commands started.", stressProcessCount);
+        return processes + ", " + cpu + ", " + io + " and " + bandwidth + " at " + cgroup.cpuStatus() + ".";
     }
 
-    private static String cmd(Optional<Duration> stressPeriod, int stressFactor) {
+    private static String cmd(Optional<Duration> stressPeriod, int stressFactor, boolean withIo, boolean withVm) {
         return Stream.of(STRESS_COMMAND,
-                "--cpu", Integer.toString(stressFactor * 10),
-                "--io", Integer.toString(stressFactor * 10),
-                "--vm", Integer.toString(stressFactor * 10),
-                "--hdd", Integer.toString(stressFactor * 10),
+                withIo ? "--io " + stressFactor * 10 : "",
+                withVm ? "--vm " + stressFactor * 10 : "",
+                withIo ? "--hdd " + stressFactor * 10 : "",
                 // optional '--timeout SECONDS'
                 stressPeriod.map(__ -> "--timeout").orElse(""),
                 stressPeriod.map(duration -> duration.getSeconds())
@@ -59,18 +116,4 @@ public class SystemStresser {
                         .orElse(""))
                 .collect(Collectors.joining(" "));
     }
-
-    @NotNull
-    private static Stream<ProcessHandle> allStressProcessHandle() {
-        return ProcessHandle.allProcesses()
-                .filter(process -> process.info().command().map(cmd -> cmd.endsWith("stress")).orElse(false));
-    }
-
-    private static void safeKill(ProcessHandle processHandle) {
-        try {
-            processHandle.destroyForcibly();
-        } catch (Exception e) {
-            System.out.println(">> error during killing of process " + processHandle.pid());
-        }
-    }
 }
@@ -0,0 +1,169 @@
+package de.jwausle.kubernetes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link CgroupTelemetry} on cgroup v1 and v2 fixtures in a temporary root, sampled by hand.
+ */
+public class CgroupTelemetryTest {
+    private static final Duration NEVER = Duration.ofDays(1);
+    private static final double DELTA = 1e-9;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private CgroupTelemetry cgroup;
+
+    @Before
+    public void setUp() {
+        root = folder.getRoot().toPath();
+    }
+
+    @After
+    public void tearDown() {
+        if (cgroup != null) {
+            cgroup.close();
+        }
+    }
+
+    @Test
+    public void v2MaxIsUnlimited() throws IOException {
+        write("cgroup.controllers", "cpu memory io");
+        write("memory.current", "104857600");
+        write("memory.max", "max");
+        write("cpu.max", "max 100000");
+
+        cgroup = new CgroupTelemetry(root, NEVER);
+
+        assertEquals(104857600, cgroup.memoryCurrentBytes());
+        assertEquals(-1, cgroup.memoryMaxBytes());
+        assertEquals(-1, cgroup.memoryUsageRatio(), DELTA);
+        assertEquals(-1, cgroup.cpuQuotaCores(), DELTA);
+    }
+
+    @Test
+    public void v2LimitIsANumber() throws IOException {
+        write("cgroup.controllers", "cpu memory io");
+        write("memory.current", "268435456");
+        write("memory.max", "1073741824");
+        write("cpu.max", "150000 100000");
+
+        cgroup = new CgroupTelemetry(root, NEVER);
+
+        assertEquals(1073741824, cgroup.memoryMaxBytes());
+        assertEquals(0.25, cgroup.memoryUsageRatio(), DELTA);
+        assertEquals(1.5, cgroup.cpuQuotaCores(), DELTA);
+    }
+
+    @Test
+    public void v1LimitIsANumberAndUnlimitedQuota() throws IOException {
+        write("memory/memory.usage_in_bytes", "536870912");
+        write("memory/memory.limit_in_bytes", "2147483648");
+        write("cpu/cpu.cfs_quota_us", "-1");
+        write("cpu/cpu.cfs_period_us", "100000");
+
+        cgroup = new CgroupTelemetry(root, NEVER);
+
+        assertEquals(536870912, cgroup.memoryCurrentBytes());
+        assertEquals(2147483648L, cgroup.memoryMaxBytes());
+        assertEquals(-1, cgroup.cpuQuotaCores(), DELTA);
+    }
+
+    @Test
+    public void v1UnlimitedIsMax() throws IOException {
+        write("memory/memory.limit_in_bytes", "9223372036854771712");
+        write("cpu/cpu.cfs_quota_us", "50000");
+        write("cpu/cpu.cfs_period_us", "100000");
+
+        cgroup = new CgroupTelemetry(root, NEVER);
+
+        assertEquals(-1, cgroup.memoryMaxBytes());
+        assertEquals(0.5, cgroup.cpuQuotaCores(), DELTA);
+    }
+
+    @Test
+    public void missingFilesAreUnknown() throws IOException {
+        write("cgroup.controllers", "");
+
+        cgroup = new CgroupTelemetry(root, NEVER);
+
+        assertEquals(-1, cgroup.periods());
+        assertEquals(-1, cgroup.throttledPeriods());
+        assertEquals(-1, cgroup.throttledSeconds(), DELTA);
+        assertEquals(-1, cgroup.memoryCurrentBytes());
+        assertEquals(-1, cgroup.memoryMaxBytes());
+        assertEquals(-1, cgroup.cpuQuotaCores(), DELTA);
+        assertEquals(-1, cgroup.pressureSome(CgroupTelemetry.Resource.CPU), DELTA);
+        assertEquals(-1, cgroup.pressureFull(CgroupTelemetry.Resource.MEMORY), DELTA);
+    }
+
+    @Test
+    public void pressureSomeAndFull() throws IOException {
+        write("cgroup.controllers", "cpu memory io");
+        write("cpu.pressure", "some avg10=12.34 avg60=5.00 avg300=1.00 total=123456\n"
+                + "full avg10=0.00 avg60=0.00 avg300=0.00 total=0\n");
+        write("memory.pressure", "some avg10=1.50 avg60=0.50 avg300=0.10 total=42\n"
+                + "full avg10=0.75 avg60=0.25 avg300=0.05 total=21\n");
+
+        cgroup = new CgroupTelemetry(root, NEVER);
+
+        assertEquals(12.34, cgroup.pressureSome(CgroupTelemetry.Resource.CPU), DELTA);
+        assertEquals(0, cgroup.pressureFull(CgroupTelemetry.Resource.CPU), DELTA);
+        assertEquals(1.5, cgroup.pressureSome(CgroupTelemetry.Resource.MEMORY), DELTA);
+        assertEquals(0.75, cgroup.pressureFull(CgroupTelemetry.Resource.MEMORY), DELTA);
+        assertEquals(-1, cgroup.pressureSome(CgroupTelemetry.Resource.IO), DELTA);
+    }
+
+    @Test
+    public void throttledRatioOfTheLastInterval() throws IOException {
+        write("cgroup.controllers", "cpu memory io");
+        write("cpu.stat", "usage_usec 1000\nnr_periods 100\nnr_throttled 10\nthrottled_usec 2500000\n");
+
+        cgroup = new CgroupTelemetry(root, NEVER);
+
+        assertEquals(100, cgroup.periods());
+        assertEquals(10, cgroup.throttledPeriods());
+        assertEquals(2.5, cgroup.throttledSeconds(), DELTA);
+        assertEquals(0, cgroup.throttledRatio(), DELTA);
+
+        write("cpu.stat", "usage_usec 2000\nnr_periods 150\nnr_throttled 30\nthrottled_usec 4000000\n");
+        cgroup.sample();
+
+        assertEquals(150, cgroup.periods());
+        assertEquals(0.4, cgroup.throttledRatio(), DELTA);
+
+        cgroup.sample();
+
+        assertEquals(0, cgroup.throttledRatio(), DELTA);
+    }
+
+    @Test
+    public void v1ThrottledTimeInNanos() throws IOException {
+        write("cpu/cpu.stat", "nr_periods 20\nnr_throttled 5\nthrottled_time 1500000000\n");
+
+        cgroup = new CgroupTelemetry(root, NEVER);
+
+        assertEquals(20, cgroup.periods());
+        assertEquals(5, cgroup.throttledPeriods());
+        assertEquals(1.5, cgroup.throttledSeconds(), DELTA);
+    }
+
+    private void write(String file, String content) throws IOException {
+        Path path = root.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+    }
+}